@@ -0,0 +1,108 @@
+package nu.helmers.courses.parallel;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * Collects the results of parallel producers without any contention: every producer adds to a buffer of its own, and
+ * the buffers are merged once, after all producers have finished.
+ * <p/>
+ * There are two kinds of buffers:
+ * <ul>
+ *     <li>{@link #buffer()} returns the buffer of the calling thread. Every worker thread gets one buffer, no matter
+ *     how many tasks (or asyncs) it runs. The order of the merged result is undefined.</li>
+ *     <li>{@link #buffer(long)} returns a new buffer for a range of the input, like the [from, to) of a task. The
+ *     merged result holds the range buffers in the order of their start, so a producer that adds the results of its
+ *     range in order preserves the order of the input.</li>
+ * </ul>
+ * Getting a buffer is the only synchronized operation (it registers the buffer for the merge), so get one per task,
+ * not one per element. The merge relies on the producers having finished: use {@link #collectFinish(Consumer)} or
+ * {@link #collectInvoke(ForkJoinPool, ForkJoinTask)}, or call {@link #result()} after joining the producers yourself.
+ * <p/>
+ * A collector can be used for one collection after the other: collectFinish and collectInvoke start every collection
+ * with fresh buffers (also for threads that have a buffer from an earlier collection). When collecting yourself, call
+ * {@link #reset()} before starting the producers.
+ */
+public class BufferingCollector<T> {
+
+    /** Thread buffers come after all range buffers in the merged result. */
+    private static final long THREAD_BUFFER = Long.MAX_VALUE;
+
+    private volatile Collection<T> collection = new Collection<>();
+
+    /** Returns the buffer of the calling thread. */
+    public List<T> buffer() {
+        return collection.threadBuffer.get();
+    }
+
+    /** Returns a new buffer for the range of the input that starts at <code>rangeStart</code>. */
+    public List<T> buffer(long rangeStart) {
+        return collection.register(rangeStart);
+    }
+
+    /** Drops all buffers, so the next collection starts empty. Only call this when no producers are running. */
+    public void reset() {
+        collection = new Collection<>();
+    }
+
+    /**
+     * Runs the body in a {@link ParallelRuntime} finish scope, passing it this collector, and returns the merged result
+     * once all asyncs it spawned have completed.
+     */
+    public List<T> collectFinish(Consumer<BufferingCollector<T>> body) {
+        reset();
+        ParallelRuntime.finish(() -> body.accept(this));
+        return result();
+    }
+
+    /** Runs the task in the given pool, and returns the merged result once it has completed. */
+    public List<T> collectInvoke(ForkJoinPool pool, ForkJoinTask<?> task) {
+        reset();
+        pool.invoke(task);
+        return result();
+    }
+
+    /**
+     * Merges the buffers: first the range buffers (ordered by the start of their range), then the thread buffers. Only
+     * call this after all producers have finished, in a way that makes their adds visible (like joining them).
+     */
+    public List<T> result() {
+        List<Buffer<T>> sorted = new ArrayList<>(collection.buffers);
+        sorted.sort(Comparator.comparingLong(buffer -> buffer.rangeStart));
+        int size = 0;
+        for (Buffer<T> buffer : sorted) {
+            size += buffer.elements.size();
+        }
+        List<T> result = new ArrayList<>(size);
+        for (Buffer<T> buffer : sorted) {
+            result.addAll(buffer.elements);
+        }
+        return result;
+    }
+
+    /** The buffers of one collection. */
+    private static final class Collection<T> {
+        final ConcurrentLinkedQueue<Buffer<T>> buffers = new ConcurrentLinkedQueue<>();
+        final ThreadLocal<List<T>> threadBuffer = ThreadLocal.withInitial(() -> register(THREAD_BUFFER));
+
+        List<T> register(long rangeStart) {
+            Buffer<T> buffer = new Buffer<>(rangeStart);
+            buffers.add(buffer);
+            return buffer.elements;
+        }
+    }
+
+    private static final class Buffer<T> {
+        final long rangeStart;
+        final List<T> elements = new ArrayList<>();
+
+        Buffer(long rangeStart) {
+            this.rangeStart = rangeStart;
+        }
+    }
+}
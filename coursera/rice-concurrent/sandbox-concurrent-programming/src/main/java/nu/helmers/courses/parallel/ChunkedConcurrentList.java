@@ -0,0 +1,111 @@
+package nu.helmers.courses.parallel;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The storage shared by {@link ConcurrentIntList} and {@link ConcurrentLongList}: a directory of chunks (primitive
+ * arrays of type A) that double in size, so growing the list never copies existing elements.
+ * <p/>
+ * An add reserves its slots with a single atomic increment of the size, and then writes to its own slots, so writers
+ * never wait for each other. The first writer that needs a chunk allocates it and installs it in the directory with a
+ * CAS; a writer that loses that race drops its own allocation and uses the installed chunk.
+ * <p/>
+ * Chunk k holds 2^(k + {@value #FIRST_CHUNK_BITS}) elements, starting at index 2^{@value #FIRST_CHUNK_BITS}
+ * &middot; (2^k - 1). The last chunk holds 2^30 elements, which limits the capacity to a little under 2^31.
+ */
+abstract class ChunkedConcurrentList<A> {
+
+    private static final int FIRST_CHUNK_BITS = 10;
+    private static final int CHUNKS = 31 - FIRST_CHUNK_BITS;
+    static final long MAX_CAPACITY = ((1L << CHUNKS) - 1) << FIRST_CHUNK_BITS;
+
+    private final AtomicReferenceArray<A> chunks = new AtomicReferenceArray<>(CHUNKS);
+    private final AtomicLong reserved = new AtomicLong();
+
+    abstract A newChunk(int length);
+
+    /**
+     * Returns the number of reserved slots. Note that this includes slots whose add is still in progress: an element
+     * is only guaranteed to be visible once the add that wrote it happens-before the read (like after joining the
+     * writing threads or tasks).
+     */
+    public int size() {
+        return (int) Math.min(reserved.get(), MAX_CAPACITY);
+    }
+
+    /** Reserves <code>count</code> consecutive slots, and returns the index of the first one. */
+    long reserve(int count) {
+        long index = reserved.getAndAdd(count);
+        if (index + count > MAX_CAPACITY) {
+            throw new IllegalStateException("List is full");
+        }
+        return index;
+    }
+
+    static int chunkOf(long index) {
+        return 63 - Long.numberOfLeadingZeros((index >>> FIRST_CHUNK_BITS) + 1);
+    }
+
+    static int offsetOf(long index, int chunk) {
+        return (int) (index - chunkStart(chunk));
+    }
+
+    static long chunkStart(int chunk) {
+        return ((1L << chunk) - 1) << FIRST_CHUNK_BITS;
+    }
+
+    static int chunkLength(int chunk) {
+        return 1 << (chunk + FIRST_CHUNK_BITS);
+    }
+
+    /** Returns a chunk, allocating it if no one did so yet. */
+    A chunk(int chunk) {
+        A array = chunks.get(chunk);
+        if (array == null) {
+            array = newChunk(chunkLength(chunk));
+            if (!chunks.compareAndSet(chunk, null, array)) {
+                array = chunks.get(chunk);
+            }
+        }
+        return array;
+    }
+
+    /** Copies <code>length</code> elements from <code>source</code> into the list, starting at the given index. */
+    void copyIn(long index, A source, int from, int length) {
+        while (length > 0) {
+            int chunk = chunkOf(index);
+            int offset = offsetOf(index, chunk);
+            int count = Math.min(length, chunkLength(chunk) - offset);
+            System.arraycopy(source, from, chunk(chunk), offset, count);
+            index += count;
+            from += count;
+            length -= count;
+        }
+    }
+
+    /** Copies the first <code>length</code> elements of the list into <code>target</code>. */
+    void copyOut(A target, int length) {
+        for (int chunk = 0, copied = 0; copied < length; chunk++) {
+            int count = Math.min(length - copied, chunkLength(chunk));
+            System.arraycopy(chunk(chunk), 0, target, copied, count);
+            copied += count;
+        }
+    }
+
+    /**
+     * Checks the range [from, to) of an array of the given length, before any slots are reserved for it: a failed copy
+     * would leave reserved slots that are never written.
+     */
+    static void checkRange(int from, int to, int length) {
+        if (from < 0 || to > length || from > to) {
+            throw new IndexOutOfBoundsException("Range: [" + from + ", " + to + "), length: " + length);
+        }
+    }
+
+    void checkIndex(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+    }
+}
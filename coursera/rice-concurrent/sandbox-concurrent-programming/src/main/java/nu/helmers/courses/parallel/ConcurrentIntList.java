@@ -0,0 +1,55 @@
+package nu.helmers.courses.parallel;
+
+/**
+ * A thread-safe, append-only list of ints: a lock-free alternative for a synchronized (or copy-on-write) list of
+ * Integers, when many threads fill a list in parallel.
+ * <p/>
+ * Adding an element costs one atomic increment (no lock, no boxing, no copying of earlier elements), and
+ * {@link #addAll(int[])} reserves the slots for a whole array at once, so a bulk add costs a single atomic operation
+ * and a copy. See {@link ChunkedConcurrentList} for the way the elements are stored.
+ * <p/>
+ * The order of the elements is the order in which their slots were reserved. Elements are only guaranteed to be
+ * visible to a reader once their add happens-before the read, for example after joining the threads (or tasks, or
+ * the finish scope) that added them.
+ */
+public class ConcurrentIntList extends ChunkedConcurrentList<int[]> {
+
+    @Override
+    int[] newChunk(int length) {
+        return new int[length];
+    }
+
+    public void add(int value) {
+        long index = reserve(1);
+        int chunk = chunkOf(index);
+        chunk(chunk)[offsetOf(index, chunk)] = value;
+    }
+
+    public void addAll(int[] values) {
+        addAll(values, 0, values.length);
+    }
+
+    /**
+     * Adds the elements in [from, to) of <code>values</code>, as one consecutive range.
+     *
+     * @throws IndexOutOfBoundsException if the range is not within the array
+     */
+    public void addAll(int[] values, int from, int to) {
+        checkRange(from, to, values.length);
+        if (to > from) {
+            copyIn(reserve(to - from), values, from, to - from);
+        }
+    }
+
+    public int get(int index) {
+        checkIndex(index);
+        int chunk = chunkOf(index);
+        return chunk(chunk)[offsetOf(index, chunk)];
+    }
+
+    public int[] toArray() {
+        int[] array = new int[size()];
+        copyOut(array, array.length);
+        return array;
+    }
+}
@@ -0,0 +1,55 @@
+package nu.helmers.courses.parallel;
+
+/**
+ * A thread-safe, append-only list of longs: a lock-free alternative for a synchronized (or copy-on-write) list of
+ * Longs, when many threads fill a list in parallel.
+ * <p/>
+ * Adding an element costs one atomic increment (no lock, no boxing, no copying of earlier elements), and
+ * {@link #addAll(long[])} reserves the slots for a whole array at once, so a bulk add costs a single atomic operation
+ * and a copy. See {@link ChunkedConcurrentList} for the way the elements are stored.
+ * <p/>
+ * The order of the elements is the order in which their slots were reserved. Elements are only guaranteed to be
+ * visible to a reader once their add happens-before the read, for example after joining the threads (or tasks, or
+ * the finish scope) that added them.
+ */
+public class ConcurrentLongList extends ChunkedConcurrentList<long[]> {
+
+    @Override
+    long[] newChunk(int length) {
+        return new long[length];
+    }
+
+    public void add(long value) {
+        long index = reserve(1);
+        int chunk = chunkOf(index);
+        chunk(chunk)[offsetOf(index, chunk)] = value;
+    }
+
+    public void addAll(long[] values) {
+        addAll(values, 0, values.length);
+    }
+
+    /**
+     * Adds the elements in [from, to) of <code>values</code>, as one consecutive range.
+     *
+     * @throws IndexOutOfBoundsException if the range is not within the array
+     */
+    public void addAll(long[] values, int from, int to) {
+        checkRange(from, to, values.length);
+        if (to > from) {
+            copyIn(reserve(to - from), values, from, to - from);
+        }
+    }
+
+    public long get(int index) {
+        checkIndex(index);
+        int chunk = chunkOf(index);
+        return chunk(chunk)[offsetOf(index, chunk)];
+    }
+
+    public long[] toArray() {
+        long[] array = new long[size()];
+        copyOut(array, array.length);
+        return array;
+    }
+}
@@ -0,0 +1,101 @@
+package nu.helmers.courses.parallel;
+
+import java.io.Closeable;
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Periodically asks the JVM for deadlocked threads (monitors as well as locks like {@link ProfiledLock}, see
+ * {@link ThreadMXBean#findDeadlockedThreads()}) on a background thread, and reports every deadlock once: the threads
+ * involved, the lock each of them is waiting for, the thread that holds it, and their stacks.
+ * <p/>
+ * A deadlock doesn't resolve itself, so there's no need to look often: checking every few seconds costs next to
+ * nothing and still reports the deadlock long before someone notices a hanging node.
+ * <p/>
+ * A failing check doesn't stop the watchdog: the exception goes to the uncaught exception handler of the watchdog
+ * thread, and the next check goes ahead as planned. A deadlock whose report failed is reported again.
+ */
+public class DeadlockWatchdog implements Closeable {
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final Consumer<String> reporter;
+    private final ScheduledExecutorService executor;
+    /** The deadlocks reported so far, as sorted arrays of thread ids. Only accessed by synchronized check(). */
+    private final Set<String> reported = new HashSet<>();
+
+    /** Starts a watchdog that checks every <code>period</code>, and passes its reports to the reporter. */
+    public DeadlockWatchdog(long period, TimeUnit unit, Consumer<String> reporter) {
+        this.reporter = reporter;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "deadlock-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // An exception would cancel the schedule, silently: hand it to the uncaught exception handler instead.
+        executor.scheduleAtFixedRate(() -> {
+            try {
+                check();
+            } catch (Throwable t) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+            }
+        }, period, period, unit);
+    }
+
+    /** Starts a watchdog that checks every 5 seconds, and prints its reports to System.err. */
+    public DeadlockWatchdog() {
+        this(5, TimeUnit.SECONDS, System.err::println);
+    }
+
+    /**
+     * Checks for deadlocks right away (on the calling thread), and reports a deadlock that wasn't reported before.
+     *
+     * @return the report, or null if there's no (new) deadlock
+     */
+    public synchronized String check() {
+        long[] ids = threads.findDeadlockedThreads();
+        if (ids == null) {
+            return null;
+        }
+        Arrays.sort(ids);
+        String key = Arrays.toString(ids);
+        if (!reported.add(key)) {
+            return null;
+        }
+
+        StringBuilder report = new StringBuilder("Deadlock between ").append(ids.length).append(" threads:\n");
+        for (ThreadInfo info : threads.getThreadInfo(ids, true, true)) {
+            if (info == null) {
+                continue; // terminated in the meantime
+            }
+            LockInfo lock = info.getLockInfo();
+            report.append('"').append(info.getThreadName()).append("\" waits for ").append(lock)
+                    .append(", held by \"").append(info.getLockOwnerName()).append("\"\n");
+            for (StackTraceElement element : info.getStackTrace()) {
+                report.append("\tat ").append(element).append('\n');
+            }
+        }
+        String text = report.toString();
+        try {
+            reporter.accept(text);
+        } catch (RuntimeException | Error e) {
+            reported.remove(key); // Not reported after all: try again at the next check.
+            throw e;
+        }
+        return text;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,276 @@
+package nu.helmers.courses.parallel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Collects statistics for {@link ProfiledLock}s and {@link ProfiledStampedLock}s: per lock name, the number of
+ * acquisitions, how often a thread had to wait, and histograms of wait times and hold times. Locks with the same name
+ * share their statistics, so a name can stand for a whole class of locks (like "account").
+ * <p/>
+ * The profiler also maintains a lock-order graph: when a thread that holds lock A acquires lock B, that adds the edge
+ * A -> B. If an edge closes a cycle (some thread once took B before A), two threads can deadlock on these locks, even
+ * if they never did so far. Such cycles are reported to a listener (by default: printed to System.err) as soon as they
+ * appear, and kept for {@link #getLockOrderCycles()}. The graph has a node per lock instance, not per name: two
+ * "account" locks taken in opposite orders (transfer(a, b) and transfer(b, a)) are exactly the cycle to look for. Names
+ * are only used to report the cycle. Edges are weak references, so the graph forgets about locks that are garbage
+ * collected: those can't be part of a deadlock anymore.
+ * <p/>
+ * The uncontended path is kept cheap: locks first try to acquire without waiting, and only time the wait if that
+ * fails. Hold times are only measured for every n-th acquisition (see the constructor), because reading the clock
+ * costs more than acquiring an uncontended lock. Lock-order tracking costs a thread-local lookup per acquisition, and
+ * can be switched off.
+ */
+public class LockProfiler {
+
+    /** Histogram bucket b holds the durations in [2^(b-1), 2^b) nanoseconds. */
+    private static final int BUCKETS = 64;
+
+    private final boolean trackLockOrder;
+    private final int holdTimeSampleMask;
+    private final Consumer<List<String>> cycleListener;
+    private final ConcurrentMap<String, LockStats> stats = new ConcurrentHashMap<>();
+    private final List<List<String>> cycles = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<List<LockNode>> heldLocks = ThreadLocal.withInitial(ArrayList::new);
+
+    /** Creates a profiler that tracks the lock order, and measures the hold time of every 16th acquisition. */
+    public LockProfiler() {
+        this(true, 16, cycle -> System.err.println("Potential deadlock, inconsistent lock order: " + cycle));
+    }
+
+    /**
+     * @param trackLockOrder       whether to maintain the lock-order graph
+     * @param holdTimeSampleRate   measure the hold time of one in this many acquisitions (rounded up to a power of 2)
+     * @param cycleListener        called with the lock names of every new cycle in the lock-order graph
+     */
+    public LockProfiler(boolean trackLockOrder, int holdTimeSampleRate, Consumer<List<String>> cycleListener) {
+        this.trackLockOrder = trackLockOrder;
+        this.holdTimeSampleMask = holdTimeSampleRate <= 1 ? 0 : Integer.highestOneBit(holdTimeSampleRate - 1) * 2 - 1;
+        this.cycleListener = cycleListener;
+    }
+
+    int holdTimeSampleMask() {
+        return holdTimeSampleMask;
+    }
+
+    LockStats stats(String name) {
+        return stats.computeIfAbsent(name, n -> new LockStats());
+    }
+
+    /** Called by a lock after the calling thread acquired it (not for reentrant acquisitions). */
+    void acquired(LockNode lock) {
+        if (!trackLockOrder) {
+            return;
+        }
+        List<LockNode> held = heldLocks.get();
+        for (int i = 0; i < held.size(); i++) {
+            LockNode before = held.get(i);
+            if (before != lock) {
+                addEdge(before, lock);
+            }
+        }
+        held.add(lock);
+    }
+
+    /** Called by a lock before the calling thread releases it (not for reentrant releases). */
+    void released(LockNode lock) {
+        if (!trackLockOrder) {
+            return;
+        }
+        List<LockNode> held = heldLocks.get();
+        int index = held.lastIndexOf(lock);
+        if (index >= 0) {
+            held.remove(index);
+        }
+    }
+
+    private void addEdge(LockNode from, LockNode to) {
+        boolean added;
+        // For exclusive locks, the calling thread holds the from lock, so this monitor is uncontended.
+        synchronized (from.successors) {
+            added = from.successors.add(to); // Usually not: we've seen this order before.
+        }
+        if (added) {
+            List<LockNode> path = new ArrayList<>();
+            if (findPath(to, from, path, new HashSet<>())) {
+                List<String> cycle = new ArrayList<>();
+                cycle.add(from.name);
+                path.forEach(node -> cycle.add(node.name));
+                cycles.add(Collections.unmodifiableList(cycle));
+                cycleListener.accept(cycle);
+            }
+        }
+    }
+
+    /** Depth-first search for a path from one lock to another; on success, <code>path</code> holds it. */
+    private boolean findPath(LockNode from, LockNode to, List<LockNode> path, Set<LockNode> visited) {
+        path.add(from);
+        if (from == to) {
+            return true;
+        }
+        if (visited.add(from)) {
+            LockNode[] successors;
+            // A copy, so that we never hold the monitors of two nodes at the same time.
+            synchronized (from.successors) {
+                successors = from.successors.toArray(new LockNode[0]);
+            }
+            for (LockNode next : successors) {
+                if (findPath(next, to, path, visited)) {
+                    return true;
+                }
+            }
+        }
+        path.remove(path.size() - 1);
+        return false;
+    }
+
+    /** Returns the cycles found in the lock-order graph, each as a list of lock names that starts and ends the same. */
+    public List<List<String>> getLockOrderCycles() {
+        return Collections.unmodifiableList(cycles);
+    }
+
+    /** Returns a snapshot of the statistics of all locks, by name. */
+    public Map<String, Snapshot> snapshot() {
+        Map<String, Snapshot> snapshots = new TreeMap<>();
+        stats.forEach((name, lockStats) -> snapshots.put(name, lockStats.snapshot(name)));
+        return snapshots;
+    }
+
+    /**
+     * A lock instance in the lock-order graph. Every lock has one, with identity semantics, and the node is reachable
+     * from its lock (and the threads that hold it) only: the edges to a node are weak.
+     */
+    static final class LockNode {
+        final String name;
+        /** The locks that were taken while holding this one. Guarded by itself. */
+        final Set<LockNode> successors = Collections.newSetFromMap(new WeakHashMap<>());
+
+        LockNode(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /** The statistics of all locks with the same name. */
+    static final class LockStats {
+        private final LongAdder acquisitions = new LongAdder();
+        private final LongAdder[] waitTimes = newHistogram();
+        private final LongAdder[] holdTimes = newHistogram();
+
+        void recordAcquisition() {
+            acquisitions.increment();
+        }
+
+        void recordWait(long nanos) {
+            waitTimes[bucket(nanos)].increment();
+        }
+
+        void recordHold(long nanos) {
+            holdTimes[bucket(nanos)].increment();
+        }
+
+        Snapshot snapshot(String name) {
+            return new Snapshot(name, acquisitions.sum(), sums(waitTimes), sums(holdTimes));
+        }
+
+        private static int bucket(long nanos) {
+            return 64 - Long.numberOfLeadingZeros(Math.max(0, nanos));
+        }
+
+        private static LongAdder[] newHistogram() {
+            LongAdder[] histogram = new LongAdder[BUCKETS];
+            for (int b = 0; b < BUCKETS; b++) {
+                histogram[b] = new LongAdder();
+            }
+            return histogram;
+        }
+
+        private static long[] sums(LongAdder[] histogram) {
+            long[] sums = new long[BUCKETS];
+            for (int b = 0; b < BUCKETS; b++) {
+                sums[b] = histogram[b].sum();
+            }
+            return sums;
+        }
+    }
+
+    /** An immutable copy of the statistics of a lock name. */
+    public static final class Snapshot {
+        private final String name;
+        private final long acquisitions;
+        private final long[] waitTimes;
+        private final long[] holdTimes;
+
+        Snapshot(String name, long acquisitions, long[] waitTimes, long[] holdTimes) {
+            this.name = name;
+            this.acquisitions = acquisitions;
+            this.waitTimes = waitTimes;
+            this.holdTimes = holdTimes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getAcquisitions() {
+            return acquisitions;
+        }
+
+        /** The number of acquisitions (and failed timed attempts) that had to wait for the lock. */
+        public long getContended() {
+            return count(waitTimes);
+        }
+
+        /** Returns the number of waits with a duration in [2^(b-1), 2^b) nanoseconds, for each bucket b. */
+        public long[] getWaitTimeHistogram() {
+            return waitTimes.clone();
+        }
+
+        /** Returns the number of (sampled) holds with a duration in [2^(b-1), 2^b) nanoseconds, for each bucket b. */
+        public long[] getHoldTimeHistogram() {
+            return holdTimes.clone();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: acquisitions=%d, contended=%d (%.1f%%), wait {%s}, hold (sampled) {%s}", name,
+                    acquisitions, getContended(), acquisitions == 0 ? 0 : 100.0 * getContended() / acquisitions,
+                    format(waitTimes), format(holdTimes));
+        }
+
+        private static long count(long[] histogram) {
+            long count = 0;
+            for (long c : histogram) {
+                count += c;
+            }
+            return count;
+        }
+
+        private static String format(long[] histogram) {
+            StringBuilder text = new StringBuilder();
+            for (int b = 0; b < histogram.length; b++) {
+                if (histogram[b] > 0) {
+                    text.append(text.length() == 0 ? "" : ", ")
+                            .append("<").append(b == 63 ? "inf" : String.valueOf(1L << b)).append(" ns: ")
+                            .append(histogram[b]);
+                }
+            }
+            return text.toString();
+        }
+    }
+}
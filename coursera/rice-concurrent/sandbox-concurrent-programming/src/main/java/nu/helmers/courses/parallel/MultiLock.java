@@ -0,0 +1,151 @@
+package nu.helmers.courses.parallel;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/**
+ * Acquires several locks at once without the risk of a deadlock, like the one in DeadlockExample, where one thread
+ * takes lock1 and then lock2, while another takes lock2 and then lock1.
+ * <p/>
+ * There are two ways to avoid that:
+ * <ul>
+ *     <li>{@link #lockAll(Lock...)} always acquires the locks in the same, global order (by identity hash code), no
+ *     matter the order in which they're passed. If two locks have the same hash code, a global tie-breaking lock is
+ *     taken first, so threads can't disagree about their order.</li>
+ *     <li>{@link #tryLockAll(long, TimeUnit, Lock...)} takes the locks in any order, but never waits for one while
+ *     holding others: if a lock is taken, it releases what it has, backs off for a random, exponentially growing
+ *     time (so competing threads don't keep colliding), and tries again.</li>
+ * </ul>
+ * Both return a {@link Held}, to be released with try-with-resources. For data that is read far more often than it
+ * is written, {@link #optimisticRead(StampedLock, Supplier)} reads without acquiring anything at all.
+ */
+public final class MultiLock {
+
+    /** Taken first by threads that acquire locks whose order can't be decided by their hash code. */
+    private static final Lock TIE_LOCK = new ReentrantLock();
+
+    private static final Comparator<Object> CANONICAL_ORDER = Comparator.comparingInt(System::identityHashCode);
+
+    /** The initial and maximum back-off time of tryLockAll. */
+    private static final long MIN_BACKOFF_NANOS = 1_000;
+    private static final long MAX_BACKOFF_NANOS = 10_000_000;
+
+    private MultiLock() {
+    }
+
+    /** Acquires all locks in the canonical order, waiting as long as it takes. */
+    public static Held lockAll(Lock... locks) {
+        Lock[] ordered = locks.clone();
+        Arrays.sort(ordered, CANONICAL_ORDER);
+        boolean ties = hasTies(ordered);
+        if (ties) {
+            TIE_LOCK.lock();
+        }
+        int acquired = 0;
+        try {
+            for (Lock lock : ordered) {
+                lock.lock();
+                acquired++;
+            }
+        } catch (RuntimeException | Error e) {
+            unlock(ordered, acquired);
+            throw e;
+        } finally {
+            if (ties) {
+                TIE_LOCK.unlock();
+            }
+        }
+        return new Held(ordered);
+    }
+
+    /**
+     * Tries to acquire all locks, backing off and retrying whenever one of them is taken, until the timeout expires.
+     *
+     * @return the held locks, or null if they couldn't all be acquired in time
+     */
+    public static Held tryLockAll(long timeout, TimeUnit unit, Lock... locks) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long backoff = MIN_BACKOFF_NANOS;
+        while (true) {
+            int acquired = 0;
+            while (acquired < locks.length && locks[acquired].tryLock()) {
+                acquired++;
+            }
+            if (acquired == locks.length) {
+                return new Held(locks.clone());
+            }
+            unlock(locks, acquired);
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            LockSupport.parkNanos(Math.min(remaining, ThreadLocalRandom.current().nextLong(backoff) + 1));
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            backoff = Math.min(2 * backoff, MAX_BACKOFF_NANOS);
+        }
+    }
+
+    /**
+     * Reads data guarded by a StampedLock optimistically: without acquiring anything, and validating afterwards that
+     * no writer interfered. Only if one did, the read is repeated while holding the read lock.
+     * <p/>
+     * The read may run concurrently with a write, so it has to tolerate inconsistent data (its result is thrown
+     * away in that case): copy fields into local variables, and don't follow references that a writer may change.
+     */
+    public static <T> T optimisticRead(StampedLock lock, Supplier<T> read) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            T value = read.get();
+            if (lock.validate(stamp)) {
+                return value;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return read.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private static boolean hasTies(Lock[] ordered) {
+        for (int i = 1; i < ordered.length; i++) {
+            if (ordered[i] != ordered[i - 1]
+                    && System.identityHashCode(ordered[i]) == System.identityHashCode(ordered[i - 1])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Releases the first <code>count</code> locks, in reverse order. */
+    private static void unlock(Lock[] locks, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            locks[i].unlock();
+        }
+    }
+
+    /** A set of locks held by the current thread. Closing it releases them, in the reverse order of acquisition. */
+    public static final class Held implements AutoCloseable {
+        private final Lock[] locks;
+
+        private Held(Lock[] locks) {
+            this.locks = locks;
+        }
+
+        @Override
+        public void close() {
+            unlock(locks, locks.length);
+        }
+    }
+}
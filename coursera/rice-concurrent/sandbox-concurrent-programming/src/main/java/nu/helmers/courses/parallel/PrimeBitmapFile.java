@@ -0,0 +1,229 @@
+package nu.helmers.courses.parallel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * A file with a compact bitmap of the primes up to a bound, that can be memory mapped so lookups are available right
+ * after startup, without sieving again.
+ * <p/>
+ * Apart from 2, 3 and 5, every prime is of the form 30k + r, with r one of the 8 numbers below 30 that have no factor
+ * 2, 3 or 5 (1, 7, 11, 13, 17, 19, 23 and 29). So one byte describes 30 numbers: byte k holds one bit per candidate
+ * 30k + r. That's 1/30th of a byte per number; a bitmap of the primes up to 10^10 takes 333 MB.
+ * <p/>
+ * The file starts with a 16 byte header (magic number, version, bound), followed by the bitmap. An opened file is
+ * mapped (not read) into memory, so opening it doesn't allocate anything proportional to the bound: the operating
+ * system pages the bitmap in as lookups touch it.
+ */
+public final class PrimeBitmapFile implements Closeable {
+
+    private static final int MAGIC = 0x5052494d; // "PRIM"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    /** The size of a single mapping; a mapping can't be larger than 2 GB. */
+    private static final long MAPPING_BYTES = 1L << 30;
+
+    private static final int[] RESIDUES = {1, 7, 11, 13, 17, 19, 23, 29};
+    /** The bit for each residue mod 30, or -1 if numbers with that residue are divisible by 2, 3 or 5. */
+    private static final int[] BIT_OF_RESIDUE = new int[30];
+    /** For each residue r mod 30, the bits of the residues up to and including r. */
+    private static final int[] BITS_UP_TO_RESIDUE = new int[30];
+
+    static {
+        Arrays.fill(BIT_OF_RESIDUE, -1);
+        for (int bit = 0; bit < RESIDUES.length; bit++) {
+            BIT_OF_RESIDUE[RESIDUES[bit]] = bit;
+        }
+        for (int r = 0; r < 30; r++) {
+            for (int bit = 0; bit < RESIDUES.length && RESIDUES[bit] <= r; bit++) {
+                BITS_UP_TO_RESIDUE[r] |= 1 << bit;
+            }
+        }
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] mappings;
+    private final long limit;
+
+    private PrimeBitmapFile(FileChannel channel, MappedByteBuffer[] mappings, long limit) {
+        this.channel = channel;
+        this.mappings = mappings;
+        this.limit = limit;
+    }
+
+    /** Sieves the primes up to <code>limit</code> (using {@link SegmentedSieve}) and writes their bitmap to a file. */
+    public static void write(Path file, long limit) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.BIG_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(limit);
+
+            // Primes arrive in ascending order, so we only need to keep the byte we're currently filling in. The sieve
+            // takes a LongConsumer, which can't throw an IOException: put wraps it, and ends the sieve right away.
+            long[] current = {0, 0}; // byte index, byte value
+            try {
+                SegmentedSieve.forEachPrime(7, limit, prime -> {
+                    long byteIndex = prime / 30;
+                    while (current[0] < byteIndex) {
+                        put(channel, buffer, (byte) current[1]);
+                        current[0]++;
+                        current[1] = 0;
+                    }
+                    current[1] |= 1 << BIT_OF_RESIDUE[(int) (prime % 30)];
+                });
+                while (current[0] <= limit / 30) {
+                    put(channel, buffer, (byte) current[1]);
+                    current[0]++;
+                    current[1] = 0;
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Appends a byte to the buffer, writing the buffer to the channel when it's full.
+     *
+     * @throws UncheckedIOException if writing fails
+     */
+    private static void put(FileChannel channel, ByteBuffer buffer, byte b) {
+        if (!buffer.hasRemaining()) {
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.clear();
+        }
+        buffer.put(b);
+    }
+
+    /** Maps a file written by {@link #write} into memory. */
+    public static PrimeBitmapFile open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.BIG_ENDIAN);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // keep reading until the header is complete
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a prime bitmap file: " + file);
+            }
+            long limit = header.getLong();
+            long dataBytes = limit / 30 + 1;
+            if (channel.size() < HEADER_BYTES + dataBytes) {
+                throw new IOException("Prime bitmap file is truncated: " + file);
+            }
+
+            MappedByteBuffer[] mappings = new MappedByteBuffer[(int) ((dataBytes + MAPPING_BYTES - 1) / MAPPING_BYTES)];
+            for (int m = 0; m < mappings.length; m++) {
+                long offset = m * MAPPING_BYTES;
+                mappings[m] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + offset,
+                        Math.min(MAPPING_BYTES, dataBytes - offset));
+            }
+            return new PrimeBitmapFile(channel, mappings, limit);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** Returns the bound up to which this file knows the primes. */
+    public long getLimit() {
+        return limit;
+    }
+
+    /** @throws IllegalArgumentException if n is larger than the bound of this file */
+    public boolean isPrime(long n) {
+        checkBound(n);
+        if (n < 7) {
+            return n == 2 || n == 3 || n == 5;
+        }
+        int bit = BIT_OF_RESIDUE[(int) (n % 30)];
+        return bit >= 0 && (byteAt(n / 30) & (1 << bit)) != 0;
+    }
+
+    /** Passes every prime in [from, to] to the consumer, in ascending order. */
+    public void forEachPrime(long from, long to, LongConsumer consumer) {
+        checkBound(to);
+        for (long p = Math.max(2, from); p <= Math.min(5, to); p++) {
+            if (p != 4) {
+                consumer.accept(p);
+            }
+        }
+        for (long byteIndex = Math.max(0, from / 30); byteIndex <= to / 30; byteIndex++) {
+            int b = byteAt(byteIndex) & 0xff;
+            while (b != 0) {
+                long prime = 30 * byteIndex + RESIDUES[Integer.numberOfTrailingZeros(b)];
+                if (prime >= from && prime <= to && prime >= 7) {
+                    consumer.accept(prime);
+                }
+                b &= b - 1;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of primes less than or equal to <code>n</code>. Every byte before the one of n only holds
+     * candidates below n, so this counts the bits of those bytes (a long at a time), and the bits of n's own byte up to
+     * n.
+     */
+    public long primeCount(long n) {
+        checkBound(n);
+        if (n < 7) {
+            return n < 2 ? 0 : n < 3 ? 1 : n < 5 ? 2 : 3;
+        }
+        long fullBytes = n / 30;
+        long count = 3; // 2, 3 and 5
+        for (int m = 0; (long) m * MAPPING_BYTES < fullBytes; m++) {
+            MappedByteBuffer mapping = mappings[m];
+            int end = (int) Math.min(MAPPING_BYTES, fullBytes - m * MAPPING_BYTES);
+            int i = 0;
+            for (; i + Long.BYTES <= end; i += Long.BYTES) {
+                count += Long.bitCount(mapping.getLong(i));
+            }
+            for (; i < end; i++) {
+                count += Integer.bitCount(mapping.get(i) & 0xff);
+            }
+        }
+        return count + Integer.bitCount(byteAt(fullBytes) & BITS_UP_TO_RESIDUE[(int) (n % 30)]);
+    }
+
+    private byte byteAt(long index) {
+        return mappings[(int) (index / MAPPING_BYTES)].get((int) (index % MAPPING_BYTES));
+    }
+
+    private void checkBound(long n) {
+        if (n > limit) {
+            throw new IllegalArgumentException(n + " is beyond the bound of this file (" + limit + ")");
+        }
+    }
+
+    /**
+     * Closes the file. Note that Java offers no (portable) way to unmap a file: the mappings are released when they
+     * are garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
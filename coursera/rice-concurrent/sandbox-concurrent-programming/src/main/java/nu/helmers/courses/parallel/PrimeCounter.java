@@ -0,0 +1,104 @@
+package nu.helmers.courses.parallel;
+
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Counts the primes up to x without finding them, in O(x^(3/4)) time and O(&radic;x) memory, using Lucy's variant of
+ * the Legendre/Meissel-Lehmer method. Where {@link SegmentedSieve} needs about 17 seconds (on a single core) for
+ * &pi;(10^10), this answers &pi;(10^12) in a few seconds.
+ * <p/>
+ * Let S(v) be the number of integers in [2, v] that are either prime or have no prime factor below p. Initially (p =
+ * 2) that's v - 1. Moving on to the next prime p removes the numbers whose smallest prime factor is p:
+ * <pre>
+ *     S(v) -= S(v / p) - S(p - 1)     for every v >= p^2
+ * </pre>
+ * Once all primes up to &radic;x have been processed, S(x) = &pi;(x). The only values of v that are ever needed are
+ * the distinct values of x / i: the numbers up to &radic;x (kept in <code>small</code>) and x / i for i up to &radic;x
+ * (kept in <code>large</code>, at index i).
+ * <p/>
+ * For a single prime, each update only reads S at a smaller value, which is updated by that same prime later (in
+ * descending order). Instead of a strictly sequential sweep, the values are processed in blocks that don't read
+ * anything the block itself writes: a block [b / p + 1, b] of v only reads values up to b / p. The updates within a
+ * block are independent, so they're done in parallel.
+ */
+public final class PrimeCounter {
+
+    /**
+     * The largest x, 2<sup>48</sup> (about 2.8&middot;10<sup>14</sup>). The O(&radic;x) memory is what limits x: at
+     * this x, <code>small</code> and <code>large</code> take 128 MB each, and they grow by a factor 2 for every factor
+     * 4 of x. (The int indices would only wrap at x = 2<sup>62</sup>, far beyond any array that fits in memory.)
+     */
+    public static final long MAX_X = 1L << 48;
+
+    /** Blocks smaller than this are updated sequentially: too little work to split. */
+    private static final int PARALLEL_THRESHOLD = 1 << 14;
+
+    private PrimeCounter() {
+    }
+
+    /**
+     * Returns the number of primes less than or equal to <code>x</code> (a.k.a. &pi;(x)).
+     *
+     * @throws IllegalArgumentException if x is larger than {@link #MAX_X}
+     */
+    public static long primeCount(long x) {
+        if (x > MAX_X) {
+            throw new IllegalArgumentException(x + " is beyond the largest x supported, " + MAX_X);
+        }
+        if (x < 2) {
+            return 0;
+        }
+        int root = (int) SegmentedSieve.isqrt(x);
+        long[] small = new long[root + 1]; // small[v] = S(v)
+        long[] large = new long[root + 1]; // large[i] = S(x / i)
+        for (int v = 1; v <= root; v++) {
+            small[v] = v - 1;
+            large[v] = x / v - 1;
+        }
+
+        for (int p = 2; p <= root; p++) {
+            if (small[p] != small[p - 1]) { // p is a prime
+                removeMultiples(x, p, small, large);
+            }
+        }
+        return large[1];
+    }
+
+    /** Removes the numbers with smallest prime factor p from S, for all values of v. */
+    private static void removeMultiples(long x, int p, long[] small, long[] large) {
+        int root = small.length - 1;
+        long primesBelow = small[p - 1];
+        long square = (long) p * p;
+
+        // large[i] reads large[i * p], so going from small i to large i, a block [a, a * p - 1] only reads
+        // values beyond itself that haven't been updated yet.
+        int largeEnd = (int) Math.min(root, x / square);
+        for (int from = 1; from <= largeEnd; from = (int) Math.min((long) from * p, largeEnd + 1L)) {
+            int to = (int) Math.min((long) from * p - 1, largeEnd);
+            update(from, to, i -> {
+                long d = (long) i * p;
+                long quotient = d <= root ? large[(int) d] : small[(int) (x / d)];
+                large[i] -= quotient - primesBelow;
+            });
+        }
+
+        // small[v] reads small[v / p], so going from large v to small v, a block [b / p + 1, b] only reads
+        // values below itself that haven't been updated yet.
+        for (int to = root; to >= square; to = to / p) {
+            int from = (int) Math.max(to / p + 1, square);
+            update(from, to, v -> small[v] -= small[v / p] - primesBelow);
+        }
+    }
+
+    /** Applies an update to every index in [from, to], in parallel if there are enough of them. */
+    private static void update(int from, int to, IntConsumer update) {
+        if (to - from < PARALLEL_THRESHOLD) {
+            for (int i = from; i <= to; i++) {
+                update.accept(i);
+            }
+        } else {
+            IntStream.rangeClosed(from, to).parallel().forEach(update);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package nu.helmers.courses.parallel;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Answers questions about primes from a shared, lazily extended table, so consumers don't have to run a sieve of
+ * their own.
+ * <p/>
+ * The table is a bitmap of the odd numbers (a set bit means 'prime'), made up of segments sieved by
+ * {@link SegmentedSieve}. When a question goes beyond the end of the table, new segments are sieved (in parallel) and
+ * a new table is published, sharing the existing segments. Tables are immutable, so readers never take a lock: a
+ * question about a number the current table already covers is answered right away, even while another thread is
+ * extending the table. Only the threads that need the extension wait for it.
+ * <p/>
+ * The table takes a bit per odd number, so it's limited to numbers up to {@link #MAX_N} (2<sup>36</sup>, a table of
+ * 4 GB); questions beyond that throw an IllegalArgumentException.
+ */
+public final class Primes {
+
+    private static final int SEGMENT_BITS = SegmentedSieve.SEGMENT_BITS;
+    private static final int SEGMENT_WORDS = SegmentedSieve.SEGMENT_WORDS;
+
+    /** The largest number the table can cover. */
+    public static final long MAX_N = 1L << 36;
+    private static final int MAX_SEGMENTS = (int) (((MAX_N - 1) / 2) / SEGMENT_BITS + 1);
+
+    private static final Object EXTENSION_LOCK = new Object();
+    private static volatile Table table = new Table(new long[0][], new long[] {0});
+
+    private Primes() {
+    }
+
+    public static boolean isPrime(long n) {
+        checkLimit(n);
+        if (n < 3) {
+            return n == 2;
+        }
+        if ((n & 1) == 0) {
+            return false;
+        }
+        return tableFor(n).isOddPrime((n - 1) / 2);
+    }
+
+    /** Returns the number of primes less than or equal to <code>n</code> (a.k.a. &pi;(n)). */
+    public static long primeCount(long n) {
+        checkLimit(n);
+        if (n < 2) {
+            return 0;
+        }
+        return 1 + tableFor(n).countOddPrimes((n - 1) / 2);
+    }
+
+    /** Returns the k-th prime (1-based, so nthPrime(1) is 2). */
+    public static long nthPrime(long k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        if (k == 1) {
+            return 2;
+        }
+        // For k >= 6, the k-th prime is less than k(ln k + ln ln k) (Rosser's theorem).
+        double log = Math.log(Math.max(k, 6));
+        Table t = tableFor((long) (Math.max(k, 6) * (log + Math.log(log))) + 1);
+        return 2 * t.oddPrimeIndex(k - 2) + 1; // the (k-1)-th odd prime
+    }
+
+    /**
+     * Returns all primes in [from, to], in ascending order.
+     *
+     * @throws IllegalArgumentException if <code>to</code> is beyond {@link #MAX_N}, or if the primes don't fit in an
+     *                                  array
+     */
+    public static long[] primesInRange(long from, long to) {
+        checkLimit(to);
+        if (to < 2 || to < from) {
+            return new long[0];
+        }
+        Table t = tableFor(to);
+        long fromIndex = Math.max(0, from / 2); // the index of the first odd number >= from
+        long toIndex = (to - 1) / 2;
+        long oddCount = t.countOddPrimes(toIndex) - (fromIndex == 0 ? 0 : t.countOddPrimes(fromIndex - 1));
+        long count = oddCount + (from <= 2 ? 1 : 0);
+        if (count > Integer.MAX_VALUE - 8) { // the largest array most JVMs can allocate
+            throw new IllegalArgumentException("Too many primes in [" + from + ", " + to + "]: " + count);
+        }
+
+        long[] primes = new long[(int) count];
+        int size = 0;
+        if (from <= 2) {
+            primes[size++] = 2;
+        }
+        t.collectOddPrimes(fromIndex, toIndex, primes, size);
+        return primes;
+    }
+
+    private static void checkLimit(long n) {
+        if (n > MAX_N) {
+            throw new IllegalArgumentException(n + " is beyond the largest number supported, " + MAX_N);
+        }
+    }
+
+    /** Returns a table that covers <code>n</code>, extending the table if needed. */
+    private static Table tableFor(long n) {
+        checkLimit(n);
+        Table t = table;
+        if (t.covers(n)) {
+            return t;
+        }
+        synchronized (EXTENSION_LOCK) {
+            t = table;
+            if (t.covers(n)) {
+                return t; // Another thread extended it while we were waiting.
+            }
+            // Grow geometrically, so a series of slightly larger questions doesn't sieve one segment at a time.
+            long needed = ((n - 1) / 2) / SEGMENT_BITS + 1;
+            int segmentCount = (int) Math.min(MAX_SEGMENTS, Math.max(needed, 2L * t.segments.length));
+            table = t = t.extend(segmentCount);
+            return t;
+        }
+    }
+
+    /** An immutable bitmap of the odd primes in the first <code>segments.length</code> segments. */
+    private static final class Table {
+        final long[][] segments;
+        /** The number of odd primes in all segments before segment s, for each s (and one extra for the total). */
+        final long[] cumulativeCounts;
+
+        Table(long[][] segments, long[] cumulativeCounts) {
+            this.segments = segments;
+            this.cumulativeCounts = cumulativeCounts;
+        }
+
+        boolean covers(long n) {
+            return (n - 1) / 2 < (long) segments.length * SEGMENT_BITS;
+        }
+
+        Table extend(int segmentCount) {
+            int oldCount = segments.length;
+            long[][] newSegments = Arrays.copyOf(segments, segmentCount);
+            long highest = 2L * segmentCount * SEGMENT_BITS - 1;
+            int[] basePrimes = SegmentedSieve.basePrimes((int) SegmentedSieve.isqrt(highest));
+
+            IntStream.range(oldCount, segmentCount).parallel().forEach(s -> {
+                long[] bits = new long[SEGMENT_WORDS];
+                SegmentedSieve.sieveSegment((long) s * SEGMENT_BITS, SEGMENT_BITS, bits, basePrimes);
+                for (int w = 0; w < SEGMENT_WORDS; w++) {
+                    bits[w] = ~bits[w]; // composites -> primes
+                }
+                newSegments[s] = bits;
+            });
+
+            long[] newCounts = Arrays.copyOf(cumulativeCounts, segmentCount + 1);
+            for (int s = oldCount; s < segmentCount; s++) {
+                newCounts[s + 1] = newCounts[s] + countBits(newSegments[s], SEGMENT_WORDS);
+            }
+            return new Table(newSegments, newCounts);
+        }
+
+        boolean isOddPrime(long index) {
+            long[] bits = segments[(int) (index / SEGMENT_BITS)];
+            int bit = (int) (index % SEGMENT_BITS);
+            return (bits[bit >>> 6] & (1L << bit)) != 0;
+        }
+
+        /** Returns the number of odd primes with an index less than or equal to the given index. */
+        long countOddPrimes(long index) {
+            int segment = (int) (index / SEGMENT_BITS);
+            int bit = (int) (index % SEGMENT_BITS);
+            long[] bits = segments[segment];
+            long count = cumulativeCounts[segment] + countBits(bits, bit >>> 6);
+            return count + Long.bitCount(bits[bit >>> 6] & (-1L >>> (63 - (bit & 63))));
+        }
+
+        /** Stores the odd primes with an index in [fromIndex, toIndex] in the array, starting at the given offset. */
+        void collectOddPrimes(long fromIndex, long toIndex, long[] primes, int offset) {
+            for (long index = fromIndex; index <= toIndex; index = (index | 63) + 1) {
+                long[] bits = segments[(int) (index / SEGMENT_BITS)];
+                int bit = (int) (index % SEGMENT_BITS);
+                // The primes in the current word, from the current index up to (and including) toIndex.
+                long word = bits[bit >>> 6] & (-1L << bit);
+                if (toIndex - (index & ~63L) < 63) {
+                    word &= -1L >>> (63 - (int) (toIndex & 63));
+                }
+                while (word != 0) {
+                    primes[offset++] = 2 * ((index & ~63L) + Long.numberOfTrailingZeros(word)) + 1;
+                    word &= word - 1;
+                }
+            }
+        }
+
+        /** Returns the index of the odd prime with the given rank (0-based). */
+        long oddPrimeIndex(long rank) {
+            // Find the last segment that starts with fewer than rank + 1 primes before it.
+            int low = 0;
+            int high = segments.length - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (cumulativeCounts[middle] <= rank) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            int segment = low;
+
+            long[] bits = segments[segment];
+            long remaining = rank - cumulativeCounts[segment];
+            for (int w = 0; ; w++) {
+                int count = Long.bitCount(bits[w]);
+                if (remaining < count) {
+                    long word = bits[w];
+                    for (long r = 0; r < remaining; r++) {
+                        word &= word - 1;
+                    }
+                    return (long) segment * SEGMENT_BITS + w * 64 + Long.numberOfTrailingZeros(word);
+                }
+                remaining -= count;
+            }
+        }
+
+        private static long countBits(long[] bits, int words) {
+            long count = 0;
+            for (int w = 0; w < words; w++) {
+                count += Long.bitCount(bits[w]);
+            }
+            return count;
+        }
+    }
+}
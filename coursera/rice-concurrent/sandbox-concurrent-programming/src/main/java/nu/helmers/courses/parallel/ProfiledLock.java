@@ -0,0 +1,140 @@
+package nu.helmers.courses.parallel;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link ReentrantLock} that reports to a {@link LockProfiler}: how long threads wait for it, how long they hold it
+ * and in which order they take it together with other profiled locks.
+ * <p/>
+ * An uncontended acquisition costs a successful tryLock, an increment of a LongAdder and (when tracking the lock
+ * order) a thread-local lookup; the clock is only read when a thread has to wait, and for the sampled hold times.
+ * Only the outermost acquisition of a reentrant lock counts.
+ */
+public class ProfiledLock implements Lock {
+
+    private final String name;
+    private final ReentrantLock lock;
+    private final LockProfiler profiler;
+    private final LockProfiler.LockStats stats;
+    private final LockProfiler.LockNode node;
+    private final int sampleMask;
+
+    // Only accessed while holding the lock.
+    private int acquisitions;
+    private long holdStart;
+
+    public ProfiledLock(String name, LockProfiler profiler) {
+        this(name, profiler, false);
+    }
+
+    public ProfiledLock(String name, LockProfiler profiler, boolean fair) {
+        this.name = name;
+        this.lock = new ReentrantLock(fair);
+        this.profiler = profiler;
+        this.stats = profiler.stats(name);
+        this.node = new LockProfiler.LockNode(name);
+        this.sampleMask = profiler.holdTimeSampleMask();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void lock() {
+        if (!tryLockWithoutWaiting()) {
+            long start = System.nanoTime();
+            lock.lock();
+            stats.recordWait(System.nanoTime() - start);
+        }
+        acquired();
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        if (!tryLockWithoutWaiting()) {
+            long start = System.nanoTime();
+            try {
+                lock.lockInterruptibly();
+            } finally {
+                stats.recordWait(System.nanoTime() - start);
+            }
+        }
+        acquired();
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (lock.tryLock()) {
+            acquired();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        if (!tryLockWithoutWaiting()) {
+            long start = System.nanoTime();
+            boolean locked;
+            try {
+                locked = lock.tryLock(time, unit);
+            } finally {
+                stats.recordWait(System.nanoTime() - start);
+            }
+            if (!locked) {
+                return false;
+            }
+        }
+        acquired();
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+        if (lock.getHoldCount() == 1) {
+            if (holdStart != 0) {
+                stats.recordHold(System.nanoTime() - holdStart);
+                holdStart = 0;
+            }
+            profiler.released(node);
+        }
+        lock.unlock();
+    }
+
+    @Override
+    public Condition newCondition() {
+        return lock.newCondition();
+    }
+
+    public boolean isHeldByCurrentThread() {
+        return lock.isHeldByCurrentThread();
+    }
+
+    /**
+     * The fast path: acquires the lock if that's possible without waiting. tryLock() barges, so a fair lock is only
+     * tried when no other thread is queued for it; that way, only threads that really wait count as contended.
+     */
+    private boolean tryLockWithoutWaiting() {
+        return (!lock.isFair() || !lock.hasQueuedThreads()) && lock.tryLock();
+    }
+
+    private void acquired() {
+        if (lock.getHoldCount() > 1) {
+            return;
+        }
+        stats.recordAcquisition();
+        if ((acquisitions++ & sampleMask) == 0) {
+            holdStart = System.nanoTime();
+        }
+        profiler.acquired(node);
+    }
+
+    @Override
+    public String toString() {
+        return "ProfiledLock[" + name + ", " + lock + "]";
+    }
+}
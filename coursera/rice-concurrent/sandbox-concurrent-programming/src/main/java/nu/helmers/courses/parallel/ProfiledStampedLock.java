@@ -0,0 +1,97 @@
+package nu.helmers.courses.parallel;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A {@link StampedLock} that reports to a {@link LockProfiler}, like {@link ProfiledLock}. Wait times are recorded for
+ * both read and write locks, hold times only for (sampled) write locks: those are the ones that block everybody else.
+ * Optimistic reads don't acquire anything, so they're passed on without being profiled.
+ */
+public class ProfiledStampedLock {
+
+    private final String name;
+    private final StampedLock lock = new StampedLock();
+    private final LockProfiler profiler;
+    private final LockProfiler.LockStats stats;
+    private final LockProfiler.LockNode node;
+    private final int sampleMask;
+
+    // Only accessed while holding the write lock.
+    private int writeAcquisitions;
+    private long writeHoldStart;
+
+    public ProfiledStampedLock(String name, LockProfiler profiler) {
+        this.name = name;
+        this.profiler = profiler;
+        this.stats = profiler.stats(name);
+        this.node = new LockProfiler.LockNode(name);
+        this.sampleMask = profiler.holdTimeSampleMask();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long writeLock() {
+        long stamp = lock.tryWriteLock();
+        if (stamp == 0) {
+            long start = System.nanoTime();
+            stamp = lock.writeLock();
+            stats.recordWait(System.nanoTime() - start);
+        }
+        stats.recordAcquisition();
+        if ((writeAcquisitions++ & sampleMask) == 0) {
+            writeHoldStart = System.nanoTime();
+        }
+        profiler.acquired(node);
+        return stamp;
+    }
+
+    public long readLock() {
+        long stamp = lock.tryReadLock();
+        if (stamp == 0) {
+            long start = System.nanoTime();
+            stamp = lock.readLock();
+            stats.recordWait(System.nanoTime() - start);
+        }
+        stats.recordAcquisition();
+        profiler.acquired(node);
+        return stamp;
+    }
+
+    public void unlockWrite(long stamp) {
+        if (writeHoldStart != 0) {
+            stats.recordHold(System.nanoTime() - writeHoldStart);
+            writeHoldStart = 0;
+        }
+        profiler.released(node);
+        lock.unlockWrite(stamp);
+    }
+
+    public void unlockRead(long stamp) {
+        profiler.released(node);
+        lock.unlockRead(stamp);
+    }
+
+    /** Releases a read or write lock. */
+    public void unlock(long stamp) {
+        if (lock.isWriteLocked()) { // then this must be the write stamp: readers and a writer exclude each other
+            unlockWrite(stamp);
+        } else {
+            unlockRead(stamp);
+        }
+    }
+
+    public long tryOptimisticRead() {
+        return lock.tryOptimisticRead();
+    }
+
+    public boolean validate(long stamp) {
+        return lock.validate(stamp);
+    }
+
+    @Override
+    public String toString() {
+        return "ProfiledStampedLock[" + name + ", " + lock + "]";
+    }
+}
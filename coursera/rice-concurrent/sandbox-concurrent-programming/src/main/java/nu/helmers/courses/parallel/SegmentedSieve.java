@@ -0,0 +1,303 @@
+package nu.helmers.courses.parallel;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.LongConsumer;
+
+/**
+ * A segmented Sieve of Eratosthenes, that processes segments in parallel using the Fork/Join framework.
+ * <p/>
+ * The 'pipeline of sieves' in {@link SieveOfEratosthenes} divides every candidate by every prime found so far, and
+ * recurses once per prime: O(n&middot;&pi;(n)) divisions and a stack that overflows long before you get to large
+ * bounds. This implementation crosses off multiples instead, and only needs the primes up to &radic;n to do so.
+ * <p/>
+ * Only odd numbers are stored, one bit each (a set bit means 'composite'): bit j stands for the number 2j+1. The bits
+ * are processed in segments of {@value #SEGMENT_BITS} bits (32 KB, so a segment fits in the L1 or L2 cache), and
+ * segments are independent of each other, so they can be sieved in parallel. The multiples of 3, 5, 7, 11 and 13 are
+ * not crossed off one by one, but copied from a precomputed pattern.
+ */
+public final class SegmentedSieve {
+
+    /** The number of odd numbers per segment. A multiple of 64, so segments start at a word boundary. */
+    static final int SEGMENT_BITS = 1 << 18;
+    static final int SEGMENT_WORDS = SEGMENT_BITS / 64;
+
+    /** The number of segments a leaf task sieves, reusing one buffer. */
+    private static final int SEGMENTS_PER_LEAF = 4;
+
+    /**
+     * The largest limit, 2<sup>49</sup> (about 5.6&middot;10<sup>14</sup>): the odd numbers up to it take 2<sup>30</sup>
+     * segments, so segment indices (and the end of a batch of segments) still fit in an int. Counting the primes up to
+     * that limit takes days anyway; listing the primes in a small range near it doesn't.
+     */
+    static final long MAX_LIMIT = 1L << 49;
+
+    private static final int[] PRE_SIEVED_PRIMES = {3, 5, 7, 11, 13};
+    /** The multiples of the pre-sieved primes repeat every 3*5*7*11*13 odd numbers, i.e. every 15015 words. */
+    private static final int PATTERN_WORDS = 3 * 5 * 7 * 11 * 13;
+    private static final long[] PATTERN = createPattern();
+
+    private SegmentedSieve() {
+    }
+
+    /** Returns the number of primes less than or equal to <code>limit</code>. */
+    public static long countPrimes(long limit) {
+        if (limit < 2) {
+            return 0;
+        }
+        Range range = new Range(limit);
+        return 1 + ForkJoinPool.commonPool().invoke(new CountTask(range, 0, range.segmentCount));
+    }
+
+    /**
+     * Passes every prime less than or equal to <code>limit</code> to the consumer, in ascending order and from the
+     * calling thread. Segments are sieved in parallel, a batch at a time, so memory use doesn't depend on the limit.
+     */
+    public static void forEachPrime(long limit, LongConsumer consumer) {
+        forEachPrime(2, limit, consumer);
+    }
+
+    /** Passes every prime in [from, to] to the consumer, in ascending order and from the calling thread. */
+    public static void forEachPrime(long from, long to, LongConsumer consumer) {
+        if (to < 2 || to < from) {
+            return;
+        }
+        if (from <= 2) {
+            consumer.accept(2);
+        }
+
+        Range range = new Range(to);
+        long firstIndex = Math.max(0, (from - 1) / 2);
+        int firstSegment = (int) (firstIndex / SEGMENT_BITS);
+        int batchSize = 4 * ForkJoinPool.commonPool().getParallelism();
+        long[][] batch = new long[batchSize][SEGMENT_WORDS];
+
+        for (int batchStart = firstSegment; batchStart < range.segmentCount; batchStart += batchSize) {
+            int batchEnd = Math.min(range.segmentCount, batchStart + batchSize);
+            ForkJoinPool.commonPool().invoke(new BatchTask(range, batch, batchStart, batchStart, batchEnd));
+
+            for (int segment = batchStart; segment < batchEnd; segment++) {
+                long segmentIndex = (long) segment * SEGMENT_BITS;
+                long[] bits = batch[segment - batchStart];
+                int bitCount = range.bitCount(segment);
+                for (int w = 0; w * 64 < bitCount; w++) {
+                    long primes = ~bits[w] & wordMask(bitCount - w * 64);
+                    while (primes != 0) {
+                        long index = segmentIndex + w * 64 + Long.numberOfTrailingZeros(primes);
+                        long prime = 2 * index + 1;
+                        if (prime >= from) {
+                            consumer.accept(prime);
+                        }
+                        primes &= primes - 1;
+                    }
+                }
+            }
+        }
+    }
+
+    /** Returns all primes in [from, to] in ascending order. */
+    public static long[] primesInRange(long from, long to) {
+        long[][] buffer = {new long[1024]};
+        int[] size = {0};
+        forEachPrime(from, to, prime -> {
+            if (size[0] == buffer[0].length) {
+                buffer[0] = Arrays.copyOf(buffer[0], 2 * size[0]);
+            }
+            buffer[0][size[0]++] = prime;
+        });
+        return Arrays.copyOf(buffer[0], size[0]);
+    }
+
+    /** Returns all primes less than or equal to <code>limit</code>, using a plain (non-segmented) sieve. */
+    static int[] basePrimes(int limit) {
+        if (limit < 2) {
+            return new int[0];
+        }
+        boolean[] composite = new boolean[limit + 1];
+        int count = 0;
+        for (int i = 2; i <= limit; i++) {
+            if (!composite[i]) {
+                count++;
+                for (long j = (long) i * i; j <= limit; j += i) {
+                    composite[(int) j] = true;
+                }
+            }
+        }
+        int[] primes = new int[count];
+        for (int i = 2, p = 0; i <= limit; i++) {
+            if (!composite[i]) {
+                primes[p++] = i;
+            }
+        }
+        return primes;
+    }
+
+    /** Returns the largest number whose square is less than or equal to <code>n</code>. */
+    static long isqrt(long n) {
+        long root = (long) Math.sqrt((double) n);
+        while (root * root > n) {
+            root--;
+        }
+        while ((root + 1) * (root + 1) <= n) {
+            root++;
+        }
+        return root;
+    }
+
+    /**
+     * Sieves a segment: afterwards, bit j of <code>bits</code> is set if and only if the odd number
+     * 2&middot;(firstIndex + j) + 1 is not a prime, for j < bitCount.
+     *
+     * @param firstIndex the index of the first odd number in the segment; a multiple of 64
+     * @param basePrimes (at least) all primes up to the square root of the largest number in the segment, ascending
+     */
+    static void sieveSegment(long firstIndex, int bitCount, long[] bits, int[] basePrimes) {
+        int words = (bitCount + 63) / 64;
+        int patternOffset = (int) ((firstIndex / 64) % PATTERN_WORDS);
+        for (int w = 0; w < words; w++) {
+            bits[w] = PATTERN[patternOffset];
+            if (++patternOffset == PATTERN_WORDS) {
+                patternOffset = 0;
+            }
+        }
+        if (firstIndex == 0) {
+            // The pattern crosses off the pre-sieved primes themselves, and not the number 1.
+            for (int p : PRE_SIEVED_PRIMES) {
+                bits[p / 2 / 64] &= ~(1L << (p / 2));
+            }
+            bits[0] |= 1;
+        }
+
+        long low = 2 * firstIndex + 1;
+        long high = 2 * (firstIndex + bitCount - 1) + 1;
+        for (int i = 1 + PRE_SIEVED_PRIMES.length; i < basePrimes.length; i++) {
+            long p = basePrimes[i];
+            if (p * p > high) {
+                break;
+            }
+            // The first odd multiple of p in the segment, but not below p*p: smaller multiples have a smaller factor.
+            long multiple = Math.max(p * p, (low + p - 1) / p * p);
+            if ((multiple & 1) == 0) {
+                multiple += p;
+            }
+            for (long j = (multiple - low) / 2; j < bitCount; j += p) {
+                bits[(int) (j >>> 6)] |= 1L << j;
+            }
+        }
+    }
+
+    /** Returns the number of primes among the first <code>bitCount</code> (odd) numbers of a sieved segment. */
+    static int countPrimes(long[] bits, int bitCount) {
+        int count = 0;
+        for (int w = 0; w * 64 < bitCount; w++) {
+            count += Long.bitCount(~bits[w] & wordMask(bitCount - w * 64));
+        }
+        return count;
+    }
+
+    /** Returns a mask for the first <code>bits</code> bits of a word (all 64 if <code>bits</code> >= 64). */
+    private static long wordMask(int bits) {
+        return bits >= 64 ? -1L : (1L << bits) - 1;
+    }
+
+    private static long[] createPattern() {
+        long[] pattern = new long[PATTERN_WORDS];
+        for (int j = 0; j < PATTERN_WORDS * 64; j++) {
+            long n = 2L * j + 1;
+            for (int p : PRE_SIEVED_PRIMES) {
+                if (n % p == 0) {
+                    pattern[j / 64] |= 1L << j;
+                    break;
+                }
+            }
+        }
+        return pattern;
+    }
+
+    /** The odd numbers up to a limit, divided into segments, and the base primes needed to sieve them. */
+    private static final class Range {
+        final long bitCount;
+        final int segmentCount;
+        final int[] basePrimes;
+
+        Range(long limit) {
+            if (limit > MAX_LIMIT) {
+                throw new IllegalArgumentException("Limit too large: " + limit);
+            }
+            this.bitCount = (limit - 1) / 2 + 1; // the odd numbers 1, 3, ..., limit (or limit - 1)
+            this.segmentCount = (int) ((bitCount + SEGMENT_BITS - 1) / SEGMENT_BITS);
+            this.basePrimes = basePrimes((int) isqrt(limit));
+        }
+
+        int bitCount(int segment) {
+            return (int) Math.min(SEGMENT_BITS, bitCount - (long) segment * SEGMENT_BITS);
+        }
+
+        void sieve(int segment, long[] bits) {
+            sieveSegment((long) segment * SEGMENT_BITS, bitCount(segment), bits, basePrimes);
+        }
+    }
+
+    /** Counts the primes in a range of segments. */
+    private static final class CountTask extends RecursiveTask<Long> {
+        private final Range range;
+        private final int fromSegment;
+        private final int toSegment;
+
+        CountTask(Range range, int fromSegment, int toSegment) {
+            this.range = range;
+            this.fromSegment = fromSegment;
+            this.toSegment = toSegment;
+        }
+
+        @Override
+        protected Long compute() {
+            if (toSegment - fromSegment <= SEGMENTS_PER_LEAF) {
+                long[] bits = new long[SEGMENT_WORDS];
+                long count = 0;
+                for (int segment = fromSegment; segment < toSegment; segment++) {
+                    range.sieve(segment, bits);
+                    count += countPrimes(bits, range.bitCount(segment));
+                }
+                return count;
+            }
+
+            int middle = (fromSegment + toSegment) >>> 1;
+            CountTask task1 = new CountTask(range, fromSegment, middle);
+            CountTask task2 = new CountTask(range, middle, toSegment);
+            task1.fork();
+            long count2 = task2.compute();
+            return task1.join() + count2;
+        }
+    }
+
+    /** Sieves a range of segments into the buffers of a batch. */
+    private static final class BatchTask extends RecursiveAction {
+        private final Range range;
+        private final long[][] batch;
+        private final int batchStart;
+        private final int fromSegment;
+        private final int toSegment;
+
+        BatchTask(Range range, long[][] batch, int batchStart, int fromSegment, int toSegment) {
+            this.range = range;
+            this.batch = batch;
+            this.batchStart = batchStart;
+            this.fromSegment = fromSegment;
+            this.toSegment = toSegment;
+        }
+
+        @Override
+        protected void compute() {
+            if (toSegment - fromSegment == 1) {
+                range.sieve(fromSegment, batch[fromSegment - batchStart]);
+                return;
+            }
+            int middle = (fromSegment + toSegment) >>> 1;
+            invokeAll(new BatchTask(range, batch, batchStart, fromSegment, middle),
+                    new BatchTask(range, batch, batchStart, middle, toSegment));
+        }
+    }
+}
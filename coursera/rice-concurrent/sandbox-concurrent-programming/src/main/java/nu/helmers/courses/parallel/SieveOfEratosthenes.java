@@ -12,14 +12,26 @@ import java.util.stream.LongStream;
  * But in the end it turned out the proposed Java implementation of Prof. Sarkar is very close to what I've written:
  * If you rename Sieve.filter(long n) to Sieve.process(Object message), nextSieve to nextActor, etc. my solution can
  * also be viewed as an actor. The 'mailbox' is not visible here, but the actor does respond to messages.
+ * <p/>
+ * The chain of sieves is nice to illustrate the idea, but it doesn't scale: every candidate is divided by every prime
+ * found so far, and the recursion depth equals the number of primes found, so the stack overflows well past
+ * {@link #UPPER_BOUND}. By default this class prints the primes using {@link SegmentedSieve}; pass "chain" as the
+ * first argument to run the chain of sieves instead, or "pipeline" to run it as a {@link SievePipeline} of actors that
+ * run concurrently.
  */
 public class SieveOfEratosthenes {
 
     private final static long UPPER_BOUND = 200_000;
 
-    public static void main(String[] args) {
-        Sieve sieve_2 = new Sieve(2);
-        LongStream.rangeClosed(3, UPPER_BOUND).forEach(l -> sieve_2.filter(l));
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length > 0 && args[0].equals("pipeline")) {
+            new SievePipeline().run(UPPER_BOUND, System.out::println);
+        } else if (args.length > 0 && args[0].equals("chain")) {
+            Sieve sieve_2 = new Sieve(2);
+            LongStream.rangeClosed(3, UPPER_BOUND).forEach(l -> sieve_2.filter(l));
+        } else {
+            SegmentedSieve.forEachPrime(UPPER_BOUND, System.out::println);
+        }
     }
 
     private static class Sieve {
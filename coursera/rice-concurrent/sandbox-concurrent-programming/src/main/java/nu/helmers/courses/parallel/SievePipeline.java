@@ -0,0 +1,281 @@
+package nu.helmers.courses.parallel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+
+/**
+ * The pipeline of sieves from {@link SieveOfEratosthenes}, as real actors that run concurrently.
+ * <p/>
+ * In SieveOfEratosthenes every Sieve is an 'actor' without a mailbox: it runs on the caller's thread and handles one
+ * number at a time. Here each stage is an actor with its own single-threaded executor and a bounded mailbox, and holds
+ * a group of primes instead of just one. Candidates travel through the pipeline in batches, so a stage pays for a
+ * hand-off once per batch instead of once per number. When a stage's mailbox is full, the stage before it waits
+ * (backpressure), so a fast producer can't flood a slow stage.
+ * <p/>
+ * A candidate that survives all stages is a prime. The last stage passes it on to the consumer and, if it's needed to
+ * filter later candidates (i.e. if its square is within bounds), adds it to its group of primes. When that group is
+ * full, the last stage spawns a new stage, just like a Sieve creates its nextSieve. Once the maximum number of stages
+ * has been reached, the last stage keeps all further primes itself.
+ * <p/>
+ * Primes are found in ascending order: each mailbox is FIFO, so a candidate never overtakes a smaller one.
+ */
+public class SievePipeline {
+
+    private final int maxStages;
+    private final int primesPerStage;
+    private final int batchSize;
+    private final int mailboxCapacity;
+
+    /** Creates a pipeline with up to one stage per available processor. */
+    public SievePipeline() {
+        this(Runtime.getRuntime().availableProcessors(), 32, 1024, 16);
+    }
+
+    /**
+     * @param maxStages       the maximum number of stages (threads)
+     * @param primesPerStage  the number of primes a stage holds, before a new stage is spawned
+     * @param batchSize       the (maximum) number of candidates per message
+     * @param mailboxCapacity the number of messages a mailbox can hold before the sender has to wait
+     */
+    public SievePipeline(int maxStages, int primesPerStage, int batchSize, int mailboxCapacity) {
+        this.maxStages = maxStages;
+        this.primesPerStage = primesPerStage;
+        this.batchSize = batchSize;
+        this.mailboxCapacity = mailboxCapacity;
+    }
+
+    /**
+     * Passes every prime less than or equal to <code>upperBound</code> to the consumer, in ascending order. The
+     * consumer is called by the pipeline stages (one at a time), not by the calling thread.
+     *
+     * @return the number of primes found
+     */
+    public long run(long upperBound, LongConsumer consumer) throws InterruptedException {
+        if (upperBound < 2) {
+            return 0;
+        }
+        consumer.accept(2);
+
+        Run run = new Run(upperBound, consumer);
+        Throwable failure;
+        try {
+            Stage first = run.spawn();
+            long[] batch = new long[batchSize];
+            int size = 0;
+            for (long candidate = 3; candidate <= upperBound; candidate += 2) {
+                batch[size++] = candidate;
+                if (size == batchSize) {
+                    first.mailbox.put(batch);
+                    batch = new long[batchSize];
+                    size = 0;
+                }
+            }
+            if (size > 0) {
+                first.mailbox.put(Arrays.copyOf(batch, size));
+            }
+            first.mailbox.put(END);
+
+            run.done.await();
+            failure = run.failure.get();
+        } finally {
+            run.shutdown();
+        }
+        if (failure != null) {
+            throw new IllegalStateException("Pipeline failed", failure);
+        }
+        return run.primeCount + 1;
+    }
+
+    /** The end-of-stream message. */
+    private static final long[] END = new long[0];
+
+    /** The state of a single run of the pipeline. */
+    private final class Run {
+        final long upperBound;
+        final LongConsumer consumer;
+        final List<ExecutorService> executors = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        /** Only updated by the last stage, and read after the run has completed. */
+        long primeCount;
+
+        Run(long upperBound, LongConsumer consumer) {
+            this.upperBound = upperBound;
+            this.consumer = consumer;
+        }
+
+        Stage spawn() {
+            Stage stage = new Stage(this, executors.size() + 1);
+            ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "sieve-stage-" + stage.number);
+                thread.setDaemon(true);
+                return thread;
+            });
+            // Stages are spawned by the generator (the first one) and by the last stage (the others), never
+            // concurrently, but shutdown() is called by the generator.
+            synchronized (executors) {
+                executors.add(executor);
+            }
+            executor.execute(stage);
+            return stage;
+        }
+
+        boolean isLastPossibleStage(Stage stage) {
+            return stage.number >= maxStages;
+        }
+
+        void fail(Throwable t) {
+            failure.compareAndSet(null, t);
+            done.countDown();
+        }
+
+        void shutdown() {
+            synchronized (executors) {
+                executors.forEach(ExecutorService::shutdownNow);
+            }
+        }
+    }
+
+    private final class Stage implements Runnable {
+        private final Run run;
+        private final int number;
+        private final Mailbox mailbox;
+        private long[] primes = new long[primesPerStage];
+        private int primeCount;
+        private Stage next;
+
+        Stage(Run run, int number) {
+            this.run = run;
+            this.number = number;
+            this.mailbox = new Mailbox(mailboxCapacity, run);
+        }
+
+        @Override
+        public void run() {
+            try {
+                long[] survivors = new long[batchSize];
+                while (true) {
+                    long[] batch = mailbox.take();
+                    if (batch == END) {
+                        if (next != null) {
+                            next.mailbox.put(END);
+                        } else {
+                            run.done.countDown();
+                        }
+                        return;
+                    }
+
+                    int survivorCount = 0;
+                    for (long candidate : batch) {
+                        if (!isDivisible(candidate)) {
+                            if (next != null) {
+                                survivors[survivorCount++] = candidate;
+                            } else {
+                                found(candidate);
+                            }
+                        }
+                    }
+                    if (survivorCount > 0) {
+                        next.mailbox.put(Arrays.copyOf(survivors, survivorCount));
+                    }
+                }
+            } catch (Throwable t) {
+                run.fail(t);
+            }
+        }
+
+        private boolean isDivisible(long candidate) {
+            for (int i = 0; i < primeCount; i++) {
+                long prime = primes[i];
+                if (prime * prime > candidate) {
+                    return false; // No need to look any further; the next stages will come to the same conclusion.
+                }
+                if (candidate % prime == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Called on the last stage for a candidate that survived all stages, i.e. a prime. */
+        private void found(long prime) {
+            run.primeCount++;
+            run.consumer.accept(prime);
+
+            if (prime > run.upperBound / prime) {
+                return; // Too large to be a factor of any candidate.
+            }
+            if (primeCount < primes.length) {
+                primes[primeCount++] = prime;
+            } else if (run.isLastPossibleStage(this)) {
+                primes = Arrays.copyOf(primes, 2 * primes.length);
+                primes[primeCount++] = prime;
+            } else {
+                // The new stage doesn't run anything before its first message arrives, so this is safe.
+                next = run.spawn();
+                next.primes[next.primeCount++] = prime;
+            }
+        }
+    }
+
+    /**
+     * A bounded single-producer single-consumer queue: each mailbox is only written by the stage before it (or the
+     * generator), and only read by its own stage. That allows a lock-free ring buffer, with no CAS at all.
+     */
+    private static final class Mailbox {
+        private final long[][] messages;
+        private final AtomicLong head = new AtomicLong(); // next message to take
+        private final AtomicLong tail = new AtomicLong(); // next free slot
+        private final Run run;
+
+        Mailbox(int capacity, Run run) {
+            this.messages = new long[capacity][];
+            this.run = run;
+        }
+
+        void put(long[] message) {
+            long t = tail.get();
+            for (int idle = 0; t - head.get() == messages.length; idle++) {
+                idle(idle);
+            }
+            messages[(int) (t % messages.length)] = message;
+            tail.lazySet(t + 1); // publishes the message
+        }
+
+        long[] take() {
+            long h = head.get();
+            for (int idle = 0; h == tail.get(); idle++) {
+                idle(idle);
+            }
+            int slot = (int) (h % messages.length);
+            long[] message = messages[slot];
+            messages[slot] = null;
+            head.lazySet(h + 1); // frees the slot
+            return message;
+        }
+
+        /** Spin a little, then yield, then park: waiting is cheap at first, and doesn't burn a core for long. */
+        private void idle(int idle) {
+            Throwable failure = run.failure.get();
+            if (failure != null) {
+                throw new IllegalStateException("Pipeline aborted, because a stage failed", failure);
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IllegalStateException("Pipeline aborted, because it was interrupted");
+            }
+            if (idle > 100) {
+                LockSupport.parkNanos(idle > 1000 ? 100_000 : 10_000);
+            } else if (idle > 10) {
+                Thread.yield();
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package nu.helmers.courses.parallel;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs tasks with a deadline, like the supervising thread in SimpleThreads, but for many tasks at once: instead of one
+ * thread per task that polls with join(1000), a single timer thread keeps track of all deadlines.
+ * <p/>
+ * Every task runs on a thread of its own; when available (Java 21 and up) a virtual thread, which makes 100,000
+ * concurrent tasks no problem at all. On older JVMs, tasks run on platform threads with a small stack, which limits
+ * the number of concurrent tasks to what the operating system allows.
+ * <p/>
+ * When a task is overdue, the supervisor interrupts it, and gives it a grace period to clean up and return. A task that
+ * ignores the interrupt is abandoned after the grace period: it keeps running (there's no safe way to stop a thread),
+ * but it's no longer counted as live, and its outcome is ignored. A finished task cancels its deadline, and the timer
+ * removes cancelled deadlines right away, so deadlines don't pile up.
+ */
+public class Supervisor implements AutoCloseable {
+
+    /** The states of a supervised task. All but RUNNING and INTERRUPTED are final. */
+    public enum State {
+        RUNNING,
+        /** Overdue and interrupted, but still running. */
+        INTERRUPTED,
+        FINISHED,
+        FAILED,
+        /** Returned (or failed) after having been interrupted. */
+        TIMED_OUT,
+        /** Didn't return within the grace period after the interrupt. */
+        ABANDONED
+    }
+
+    private static final ThreadFactory VIRTUAL_THREADS = virtualThreadFactory();
+
+    private final ThreadFactory threadFactory;
+    private final long gracePeriodNanos;
+    private final ScheduledThreadPoolExecutor timer;
+
+    private final AtomicLong live = new AtomicLong();
+    private final LongAdder finished = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder abandoned = new LongAdder();
+
+    /** Creates a supervisor that runs tasks on virtual threads if possible, with a grace period of 1 second. */
+    public Supervisor() {
+        this(defaultThreadFactory(), 1, TimeUnit.SECONDS);
+    }
+
+    public Supervisor(ThreadFactory threadFactory, long gracePeriod, TimeUnit unit) {
+        this.threadFactory = threadFactory;
+        this.gracePeriodNanos = unit.toNanos(gracePeriod);
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "supervisor-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /** Returns a factory for virtual threads if the JVM supports them, and for small platform threads otherwise. */
+    public static ThreadFactory defaultThreadFactory() {
+        if (VIRTUAL_THREADS != null) {
+            return VIRTUAL_THREADS;
+        }
+        AtomicLong count = new AtomicLong();
+        return r -> {
+            Thread thread = new Thread(null, r, "supervised-" + count.incrementAndGet(), 256 * 1024);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public static boolean supportsVirtualThreads() {
+        return VIRTUAL_THREADS != null;
+    }
+
+    /**
+     * Starts a task that has to complete within the given timeout.
+     *
+     * @throws RejectedExecutionException if the supervisor is closed
+     * @throws OutOfMemoryError if the thread can't be started; the task is not counted anywhere then
+     */
+    public Task submit(Runnable runnable, long timeout, TimeUnit unit) {
+        if (timer.isShutdown()) {
+            throw new RejectedExecutionException("The supervisor is closed");
+        }
+        Task task = new Task(runnable);
+        task.thread = threadFactory.newThread(task::run);
+        live.incrementAndGet();
+        try {
+            // Before the task starts, so that it always has a deadline to cancel when it completes.
+            task.deadline = timer.schedule(task::timeout, timeout, unit);
+        } catch (RejectedExecutionException e) {
+            live.decrementAndGet(); // Closed in the meantime.
+            throw e;
+        }
+        try {
+            task.thread.start();
+        } catch (Throwable t) {
+            // Never started (like "unable to create native thread"), so it's not live and can't time out. The timer
+            // may have fired already: the final state keeps it from abandoning the task (and counting it) later.
+            task.deadline.cancel(false);
+            if (task.state.getAndSet(State.FAILED) != State.ABANDONED) {
+                live.decrementAndGet();
+            }
+            throw t;
+        }
+        return task;
+    }
+
+    /** The number of tasks that are running, including the ones that are interrupted but not abandoned yet. */
+    public long getLive() {
+        return live.get();
+    }
+
+    /** The number of tasks that completed normally, in time. */
+    public long getFinished() {
+        return finished.sum();
+    }
+
+    /** The number of tasks that threw an exception, in time. */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /** The number of tasks that were interrupted, and then returned within the grace period. */
+    public long getTimedOut() {
+        return timedOut.sum();
+    }
+
+    public long getAbandoned() {
+        return abandoned.sum();
+    }
+
+    /**
+     * Stops the timer: tasks that are still running keep running, but are no longer supervised. New tasks are rejected.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Supervisor[live=%d, finished=%d, failed=%d, timed out=%d, abandoned=%d]", getLive(),
+                getFinished(), getFailed(), getTimedOut(), getAbandoned());
+    }
+
+    private static ThreadFactory virtualThreadFactory() {
+        // Thread.ofVirtual().name("supervised-", 0).factory(), without depending on Java 21 at compile time.
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "supervised-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null; // Not supported (or a preview feature that's not enabled).
+        }
+    }
+
+    /** A supervised task. */
+    public final class Task {
+        private final Runnable runnable;
+        private final AtomicReference<State> state = new AtomicReference<>(State.RUNNING);
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Thread thread;
+        private volatile ScheduledFuture<?> deadline;
+        private volatile Throwable failure;
+
+        private Task(Runnable runnable) {
+            this.runnable = runnable;
+        }
+
+        public State getState() {
+            return state.get();
+        }
+
+        /** Returns the exception the task threw, if any. */
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        /** Waits until the task has reached a final state. */
+        public void await() throws InterruptedException {
+            done.await();
+        }
+
+        /** Waits until the task has reached a final state, or the timeout expires; returns false in the latter case. */
+        public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+            return done.await(timeout, unit);
+        }
+
+        private void run() {
+            if (state.get() != State.RUNNING) {
+                // Overdue before it even started; depending on the JVM, that interrupt may have been lost.
+                Thread.currentThread().interrupt();
+            }
+            try {
+                runnable.run();
+                complete(State.FINISHED);
+            } catch (Throwable t) {
+                failure = t;
+                complete(State.FAILED);
+            }
+        }
+
+        private void complete(State outcome) {
+            ScheduledFuture<?> timeout = deadline;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            while (true) {
+                State current = state.get();
+                if (current == State.ABANDONED) {
+                    return; // Too late: already counted as abandoned.
+                }
+                State next = current == State.INTERRUPTED ? State.TIMED_OUT : outcome;
+                if (state.compareAndSet(current, next)) {
+                    live.decrementAndGet();
+                    (next == State.TIMED_OUT ? timedOut : next == State.FINISHED ? finished : failed).increment();
+                    done.countDown();
+                    return;
+                }
+            }
+        }
+
+        /** Called by the timer when the task is overdue. */
+        private void timeout() {
+            if (state.compareAndSet(State.RUNNING, State.INTERRUPTED)) {
+                thread.interrupt();
+                timer.schedule(this::abandon, gracePeriodNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void abandon() {
+            if (state.compareAndSet(State.INTERRUPTED, State.ABANDONED)) {
+                live.decrementAndGet();
+                abandoned.increment();
+                done.countDown();
+            }
+        }
+    }
+}
@@ -1,19 +1,22 @@
 package nu.helmers.courses.parallel;
 
-import edu.rice.pcdp.PCDP;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.RecursiveAction;
 import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 /**
  * This class illustrates that ArrayList is not thread-safe, and provides some examples of how to work with lists in a
@@ -70,18 +73,18 @@ public class ArrayListTest {
         assertThat(list.size(), lessThan(1_000_000));
     }
 
-    /** This test shows that ArrayList is not thread safe (using the FINISH/ASYNC paradigm from PCDP the library). */
+    /** This test shows that ArrayList is not thread safe (using the FINISH/ASYNC paradigm of ParallelRuntime). */
     @Test
-    public void arrayListIsNotThreadSafe_PCDP() {
+    public void arrayListIsNotThreadSafe_FinishAsync() {
         ArrayList<Integer> list = new ArrayList<>();
 
-        // Use the FINISH/ASYNC paradigm from the PCDP-library; by far the most concise way of expressing parallelism.
-        PCDP.finish(() -> {
-            PCDP.async(new AddToList(list, 0, 500_000));
-            PCDP.async(new AddToList(list, 500_000, 1_000_000));
+        // Use the FINISH/ASYNC paradigm; by far the most concise way of expressing parallelism.
+        ParallelRuntime.finish(() -> {
+            ParallelRuntime.async(new AddToList(list, 0, 500_000));
+            ParallelRuntime.async(new AddToList(list, 500_000, 1_000_000));
         });
 
-        System.out.printf("Filling ArrayList in parallel using PCDP-library: size %d instead of %d", list.size(), 1_000_000);
+        System.out.printf("Filling ArrayList in parallel using finish/async: size %d instead of %d", list.size(), 1_000_000);
         assertThat(list.size(), lessThan(1_000_000));
     }
 
@@ -91,9 +94,9 @@ public class ArrayListTest {
         ArrayList<Integer> list = new ArrayList<>();
 
         // Use a runnable that synchronizes access to the array list it's manipulating.
-        PCDP.finish(() -> {
-            PCDP.async(new AddToListSynchronized(list, 0, 500_000));
-            PCDP.async(new AddToListSynchronized(list, 500_000, 1_000_000));
+        ParallelRuntime.finish(() -> {
+            ParallelRuntime.async(new AddToListSynchronized(list, 0, 500_000));
+            ParallelRuntime.async(new AddToListSynchronized(list, 500_000, 1_000_000));
         });
 
         assertThat(list.size(), is(1_000_000));
@@ -109,14 +112,140 @@ public class ArrayListTest {
     public void copyOnWriteArrayListIsThreadSafe() {
         CopyOnWriteArrayList<Integer> list = new CopyOnWriteArrayList<>();
 
-        PCDP.finish(() -> {
-            PCDP.async(new AddToList(list, 0, 50_000));
-            PCDP.async(new AddToList(list, 50_000, 100_000));
+        ParallelRuntime.finish(() -> {
+            ParallelRuntime.async(new AddToList(list, 0, 50_000));
+            ParallelRuntime.async(new AddToList(list, 50_000, 100_000));
         });
 
         assertThat(list.size(), is(100_000));
     }
 
+    /**
+     * ConcurrentIntList is a lock-free, append-only alternative: adding an element costs a single atomic increment,
+     * without locking, boxing or copying the earlier elements.
+     */
+    @Test
+    public void concurrentIntListIsThreadSafe() {
+        long startTime = System.nanoTime();
+        ArrayList<Integer> plain = new ArrayList<>();
+        IntStream.range(0, 1_000_000).forEach(plain::add);
+        long plainNanos = System.nanoTime() - startTime;
+
+        ConcurrentIntList list = new ConcurrentIntList();
+        startTime = System.nanoTime();
+        ParallelRuntime.finish(() -> {
+            ParallelRuntime.async(() -> IntStream.range(0, 500_000).forEach(list::add));
+            ParallelRuntime.async(() -> IntStream.range(500_000, 1_000_000).forEach(list::add));
+        });
+        long concurrentNanos = System.nanoTime() - startTime;
+
+        System.out.printf("Filling ArrayList sequentially: %.3f ms, filling ConcurrentIntList in parallel: %.3f ms%n",
+                plainNanos / 1e6, concurrentNanos / 1e6);
+        assertThat(list.size(), is(1_000_000));
+        int[] values = list.toArray();
+        Arrays.sort(values);
+        assertArrayEquals(IntStream.range(0, 1_000_000).toArray(), values);
+    }
+
+    /** Bulk adds reserve a consecutive range of slots, so every array ends up in one piece. */
+    @Test
+    public void concurrentLongListBulkAdd() {
+        ConcurrentLongList list = new ConcurrentLongList();
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[8];
+        for (int t = 0; t < tasks.length; t++) {
+            long[] values = LongStream.range(t * 125_000, (t + 1) * 125_000).toArray();
+            tasks[t] = ForkJoinPool.commonPool().submit(() -> {
+                for (int from = 0; from < values.length; from += 1000) {
+                    list.addAll(values, from, from + 1000);
+                }
+            });
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+
+        assertThat(list.size(), is(1_000_000));
+        for (int i = 0; i < list.size(); i += 1000) {
+            // Every block of 1000 is consecutive, and starts at a multiple of 1000.
+            assertThat(list.get(i) % 1000, is(0L));
+            assertThat(list.get(i + 999), is(list.get(i) + 999));
+        }
+        long[] values = list.toArray();
+        Arrays.sort(values);
+        assertArrayEquals(LongStream.range(0, 1_000_000).toArray(), values);
+    }
+
+    /** A range outside the array is rejected before it takes any slots, so the list stays as it was. */
+    @Test
+    public void bulkAddOutOfBounds() {
+        ConcurrentIntList ints = new ConcurrentIntList();
+        ConcurrentLongList longs = new ConcurrentLongList();
+        ints.addAll(new int[] {1, 2});
+        longs.addAll(new long[] {1, 2});
+        int[][] ranges = {{-1, 2}, {1, 4}, {2, 1}};
+        for (int[] range : ranges) {
+            assertRejected(() -> ints.addAll(new int[3], range[0], range[1]));
+            assertRejected(() -> longs.addAll(new long[3], range[0], range[1]));
+        }
+
+        assertArrayEquals(new int[] {1, 2}, ints.toArray());
+        assertArrayEquals(new long[] {1, 2}, longs.toArray());
+        ints.addAll(new int[] {3, 4, 5}, 1, 3);
+        assertArrayEquals(new int[] {1, 2, 4, 5}, ints.toArray());
+    }
+
+    /** Every async adds to a buffer of its own thread, and the buffers are merged once, at the end of the finish. */
+    @Test
+    public void bufferingCollector_FinishAsync() {
+        BufferingCollector<Integer> collector = new BufferingCollector<>();
+
+        List<Integer> list = collector.collectFinish(c -> {
+            ParallelRuntime.async(() -> IntStream.range(0, 500_000).forEach(c.buffer()::add));
+            ParallelRuntime.async(() -> IntStream.range(500_000, 1_000_000).forEach(c.buffer()::add));
+        });
+
+        assertThat(list.size(), is(1_000_000));
+        assertArrayEquals(IntStream.range(0, 1_000_000).toArray(), list.stream().mapToInt(i -> i).sorted().toArray());
+    }
+
+    /** A second collection on the same collector starts with fresh thread buffers. */
+    @Test
+    public void bufferingCollector_reuse() {
+        BufferingCollector<Integer> collector = new BufferingCollector<>();
+
+        for (int round = 0; round < 3; round++) {
+            int offset = round * 1_000;
+            List<Integer> list = collector.collectFinish(c -> {
+                ParallelRuntime.async(() -> IntStream.range(offset, offset + 500).forEach(c.buffer()::add));
+                ParallelRuntime.async(() -> IntStream.range(offset + 500, offset + 1_000).forEach(c.buffer()::add));
+            });
+
+            assertArrayEquals(IntStream.range(offset, offset + 1_000).toArray(),
+                    list.stream().mapToInt(i -> i).sorted().toArray());
+        }
+    }
+
+    /** Every task adds to a buffer for its range, so the merged result preserves the order of the input. */
+    @Test
+    public void bufferingCollector_ForkJoin() {
+        BufferingCollector<Integer> collector = new BufferingCollector<>();
+
+        CollectTask task = new CollectTask(collector, 0, 1_000_000);
+        List<Integer> list = collector.collectInvoke(ForkJoinPool.commonPool(), task);
+
+        assertThat(list.size(), is(1_000_000));
+        assertArrayEquals(IntStream.range(0, 1_000_000).toArray(), list.stream().mapToInt(i -> i).toArray());
+    }
+
+    private static void assertRejected(Runnable add) {
+        try {
+            add.run();
+            fail("Expected an IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
     static class AddToList implements Runnable {
         protected List<Integer> list;
         protected int from;
@@ -165,4 +294,27 @@ public class ArrayListTest {
             IntStream.range(from, to).forEach(i -> list.add(i));
         }
     }
+
+    static class CollectTask extends RecursiveAction {
+        private final BufferingCollector<Integer> collector;
+        private final int from;
+        private final int to;
+
+        CollectTask(BufferingCollector<Integer> collector, int from, int to) {
+            this.collector = collector;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 10_000) {
+                List<Integer> buffer = collector.buffer(from);
+                IntStream.range(from, to).forEach(buffer::add);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new CollectTask(collector, from, middle), new CollectTask(collector, middle, to));
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,209 @@
+package nu.helmers.courses.parallel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the cost of the thread-safety strategies from {@link ArrayListTest}: how long it takes a number of threads
+ * to add elements to a shared collection, one at a time or in batches, and how much garbage that creates.
+ * <p/>
+ * The strategies are an ArrayList guarded by a synchronized block, {@link Collections#synchronizedList(List)},
+ * {@link CopyOnWriteArrayList}, {@link ConcurrentLinkedQueue}, the lock-free {@link ConcurrentIntList} and the
+ * per-thread buffers of {@link BufferingCollector}. Run {@link #main(String[])} to run all of them with 1, 2, 4, ...
+ * up to N threads (N defaults to the number of processors), with the GC profiler: look at
+ * <code>gc.alloc.rate.norm</code> for the number of bytes allocated per element.
+ * <p/>
+ * The added values are below 128, so boxing them doesn't allocate (Integer caches those): all allocations come from
+ * the collections themselves.
+ * <p/>
+ * Every invocation adds {@value #ELEMENTS_PER_THREAD} elements per thread, and the score is the average time per
+ * element. Every iteration starts with an empty collection, and runs for {@value #ITERATION_MILLIS} ms: long enough to
+ * time reliably, and short enough to keep the collections well within the heap. They still grow during an iteration,
+ * and faster strategies end up with bigger collections; that matters for CopyOnWriteArrayList, which copies itself on
+ * every add (so the later adds of an iteration are the slow ones), but not for the other strategies.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 10, time = ConcurrentListBenchmark.ITERATION_MILLIS, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 20, time = ConcurrentListBenchmark.ITERATION_MILLIS, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ConcurrentListBenchmark {
+
+    static final int BATCH_SIZE = 64;
+    static final int ELEMENTS_PER_THREAD = 8_192;
+    static final int ITERATION_MILLIS = 200;
+
+    @Param({"synchronized", "synchronizedList", "copyOnWrite", "concurrentLinkedQueue", "concurrentIntList",
+            "bufferingCollector"})
+    public String strategy;
+
+    private Sink sink;
+
+    @Setup(Level.Iteration)
+    public void createSink() {
+        sink = Sink.create(strategy);
+    }
+
+    /** The batch of values a thread adds, both as ints and as Integers. */
+    @State(Scope.Thread)
+    public static class Values {
+        int[] batch;
+        List<Integer> boxedBatch;
+
+        @Setup
+        public void createBatch() {
+            batch = IntStream.range(0, BATCH_SIZE).toArray();
+            boxedBatch = new ArrayList<>();
+            IntStream.of(batch).forEach(boxedBatch::add);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS_PER_THREAD)
+    public void add() {
+        for (int i = 0; i < ELEMENTS_PER_THREAD; i++) {
+            sink.add(i & 127);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS_PER_THREAD)
+    public void addBatch(Values values) {
+        for (int i = 0; i < ELEMENTS_PER_THREAD; i += BATCH_SIZE) {
+            sink.addAll(values.batch, values.boxedBatch);
+        }
+    }
+
+    /** A shared collection that threads add to. */
+    private interface Sink {
+        void add(int value);
+
+        /** Adds a batch of values; the ints and the Integers are the same values, use whichever is cheaper. */
+        void addAll(int[] values, List<Integer> boxedValues);
+
+        static Sink create(String strategy) {
+            switch (strategy) {
+                case "synchronized":
+                    return new SynchronizedSink();
+                case "synchronizedList":
+                    return new CollectionSink(Collections.synchronizedList(new ArrayList<>()));
+                case "copyOnWrite":
+                    return new CollectionSink(new CopyOnWriteArrayList<>());
+                case "concurrentLinkedQueue":
+                    return new CollectionSink(new ConcurrentLinkedQueue<>());
+                case "concurrentIntList":
+                    return new ConcurrentIntListSink();
+                case "bufferingCollector":
+                    return new BufferingCollectorSink();
+                default:
+                    throw new IllegalArgumentException("Unknown strategy: " + strategy);
+            }
+        }
+    }
+
+    /** An ArrayList guarded by synchronized blocks, like AddToListSynchronized (but a batch takes the lock once). */
+    private static final class SynchronizedSink implements Sink {
+        private final List<Integer> list = new ArrayList<>();
+
+        @Override
+        public void add(int value) {
+            synchronized (list) {
+                list.add(value);
+            }
+        }
+
+        @Override
+        public void addAll(int[] values, List<Integer> boxedValues) {
+            synchronized (list) {
+                list.addAll(boxedValues);
+            }
+        }
+    }
+
+    /** A collection that is thread-safe by itself. */
+    private static final class CollectionSink implements Sink {
+        private final Collection<Integer> collection;
+
+        CollectionSink(Collection<Integer> collection) {
+            this.collection = collection;
+        }
+
+        @Override
+        public void add(int value) {
+            collection.add(value);
+        }
+
+        @Override
+        public void addAll(int[] values, List<Integer> boxedValues) {
+            collection.addAll(boxedValues);
+        }
+    }
+
+    private static final class ConcurrentIntListSink implements Sink {
+        private final ConcurrentIntList list = new ConcurrentIntList();
+
+        @Override
+        public void add(int value) {
+            list.add(value);
+        }
+
+        @Override
+        public void addAll(int[] values, List<Integer> boxedValues) {
+            list.addAll(values);
+        }
+    }
+
+    private static final class BufferingCollectorSink implements Sink {
+        private final BufferingCollector<Integer> collector = new BufferingCollector<>();
+
+        @Override
+        public void add(int value) {
+            collector.buffer().add(value);
+        }
+
+        @Override
+        public void addAll(int[] values, List<Integer> boxedValues) {
+            collector.buffer().addAll(boxedValues);
+        }
+    }
+
+    /** Runs the benchmarks with 1, 2, 4, ... threads, up to the number given as argument (or the processor count). */
+    public static void main(String[] args) throws RunnerException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(2 * threads, maxThreads)) {
+            new Runner(new OptionsBuilder()
+                    .include(ConcurrentListBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .build()).run();
+            if (threads == maxThreads) {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package nu.helmers.courses.parallel;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/** Tests the statistics and lock-order tracking of {@link LockProfiler}, and the {@link DeadlockWatchdog}. */
+public class LockProfilerTest {
+
+    private int counter;
+
+    @Test
+    public void statistics() {
+        LockProfiler profiler = new LockProfiler(true, 1, cycle -> { });
+        ProfiledLock lock = new ProfiledLock("counter", profiler);
+        ProfiledStampedLock stampedLock = new ProfiledStampedLock("stamped", profiler);
+
+        IntStream.range(0, 4).parallel().forEach(t -> {
+            for (int i = 0; i < 100_000; i++) {
+                lock.lock();
+                try {
+                    counter++;
+                } finally {
+                    lock.unlock();
+                }
+                long stamp = i % 10 == 0 ? stampedLock.writeLock() : stampedLock.readLock();
+                stampedLock.unlock(stamp);
+            }
+        });
+
+        LockProfiler.Snapshot snapshot = profiler.snapshot().get("counter");
+        System.out.println(snapshot);
+        System.out.println(profiler.snapshot().get("stamped"));
+        assertThat(counter, is(400_000));
+        assertThat(snapshot.getAcquisitions(), is(400_000L));
+        assertThat(Arrays.stream(snapshot.getHoldTimeHistogram()).sum(), is(400_000L)); // every hold is sampled
+        assertThat(profiler.snapshot().get("stamped").getAcquisitions(), is(400_000L));
+        assertThat(profiler.getLockOrderCycles().size(), is(0));
+    }
+
+    @Test
+    public void reentrantAcquisitionsCountOnce() {
+        LockProfiler profiler = new LockProfiler();
+        ProfiledLock lock = new ProfiledLock("reentrant", profiler);
+        lock.lock();
+        lock.lock();
+        lock.unlock();
+        assertTrue(lock.isHeldByCurrentThread());
+        lock.unlock();
+
+        assertThat(profiler.snapshot().get("reentrant").getAcquisitions(), is(1L));
+        assertThat(profiler.getLockOrderCycles().size(), is(0));
+    }
+
+    @Test
+    public void inconsistentLockOrder() {
+        List<List<String>> reported = new ArrayList<>();
+        LockProfiler profiler = new LockProfiler(true, 16, reported::add);
+        ProfiledLock a = new ProfiledLock("a", profiler);
+        ProfiledLock b = new ProfiledLock("b", profiler);
+        ProfiledLock c = new ProfiledLock("c", profiler);
+
+        // a -> b, b -> c and then c -> a: never a deadlock in a single thread, but a cycle in the lock order.
+        lockBoth(a, b);
+        lockBoth(b, c);
+        assertThat(reported.size(), is(0));
+        lockBoth(c, a);
+
+        assertThat(reported, is(Arrays.asList(Arrays.asList("c", "a", "b", "c"))));
+        assertThat(profiler.getLockOrderCycles(), is(reported));
+    }
+
+    @Test
+    public void inconsistentOrderOfLocksWithTheSameName() {
+        List<List<String>> reported = new ArrayList<>();
+        LockProfiler profiler = new LockProfiler(true, 16, reported::add);
+        ProfiledLock account1 = new ProfiledLock("account", profiler);
+        ProfiledLock account2 = new ProfiledLock("account", profiler);
+
+        // transfer(account1, account2) and transfer(account2, account1).
+        lockBoth(account1, account2);
+        assertThat(reported.size(), is(0));
+        lockBoth(account2, account1);
+
+        assertThat(reported, is(Arrays.asList(Arrays.asList("account", "account", "account"))));
+    }
+
+    @Test
+    public void uncontendedFairLock() {
+        LockProfiler profiler = new LockProfiler();
+        ProfiledLock lock = new ProfiledLock("fair", profiler, true);
+        for (int i = 0; i < 1_000; i++) {
+            lock.lock();
+            lock.unlock();
+        }
+
+        assertThat(profiler.snapshot().get("fair").getAcquisitions(), is(1_000L));
+        assertThat(profiler.snapshot().get("fair").getContended(), is(0L));
+    }
+
+    @Test
+    public void lockOrderGraphForgetsCollectedLocks() throws InterruptedException {
+        LockProfiler profiler = new LockProfiler(true, 16, cycle -> { });
+        LockProfiler.LockNode outer = new LockProfiler.LockNode("outer");
+        LockProfiler.LockNode inner = new LockProfiler.LockNode("inner");
+        profiler.acquired(outer);
+        profiler.acquired(inner);
+        profiler.released(inner);
+        profiler.released(outer);
+
+        // The edge outer -> inner doesn't keep the inner lock's node alive.
+        WeakReference<LockProfiler.LockNode> innerReference = new WeakReference<>(inner);
+        inner = null;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (innerReference.get() != null && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat(innerReference.get() == null, is(true));
+        assertThat(outer.successors.size(), is(0));
+    }
+
+    @Test
+    public void watchdogReportsDeadlock() throws InterruptedException {
+        LockProfiler profiler = new LockProfiler(false, 16, cycle -> { });
+        ProfiledLock lock1 = new ProfiledLock("lock1", profiler);
+        ProfiledLock lock2 = new ProfiledLock("lock2", profiler);
+        Thread[] threads = deadlock(lock1, lock2);
+
+        List<String> reports = Collections.synchronizedList(new ArrayList<>());
+        try (DeadlockWatchdog watchdog = new DeadlockWatchdog(10, TimeUnit.MILLISECONDS, reports::add)) {
+            awaitReport(reports);
+            assertThat(watchdog.check() == null, is(true)); // already reported
+        } finally {
+            end(threads);
+        }
+
+        assertThat(reports.size(), is(1));
+        System.out.println(reports.get(0));
+        assertTrue(reports.get(0).contains("\"thread-1\" waits for"));
+        assertTrue(reports.get(0).contains("held by \"thread-2\""));
+        assertThat(profiler.snapshot().get("lock1").getContended(), greaterThan(0L));
+    }
+
+    @Test
+    public void watchdogSurvivesFailingReporter() throws InterruptedException {
+        LockProfiler profiler = new LockProfiler(false, 16, cycle -> { });
+        Thread[] threads = deadlock(new ProfiledLock("lock1", profiler), new ProfiledLock("lock2", profiler));
+
+        AtomicInteger attempts = new AtomicInteger();
+        List<String> reports = Collections.synchronizedList(new ArrayList<>());
+        try (DeadlockWatchdog ignored = new DeadlockWatchdog(10, TimeUnit.MILLISECONDS, report -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException("Reporter failure, expected by the test");
+            }
+            reports.add(report);
+        })) {
+            awaitReport(reports);
+        } finally {
+            end(threads);
+        }
+
+        // The first attempt failed, and the next check reported the deadlock after all.
+        assertThat(attempts.get(), is(2));
+        assertThat(reports.size(), is(1));
+    }
+
+    /** Starts the two threads from DeadlockExample: each takes one lock, and then waits for the other one. */
+    private static Thread[] deadlock(ProfiledLock lock1, ProfiledLock lock2) {
+        CountDownLatch bothLocked = new CountDownLatch(2);
+        Thread[] threads = {
+                new Thread(() -> lockInTurn(lock1, lock2, bothLocked), "thread-1"),
+                new Thread(() -> lockInTurn(lock2, lock1, bothLocked), "thread-2")
+        };
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        return threads;
+    }
+
+    private static void end(Thread[] threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static void awaitReport(List<String> reports) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (reports.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void lockBoth(ProfiledLock first, ProfiledLock second) {
+        first.lock();
+        try {
+            second.lock();
+            second.unlock();
+        } finally {
+            first.unlock();
+        }
+    }
+
+    private static void lockInTurn(ProfiledLock first, ProfiledLock second, CountDownLatch bothLocked) {
+        try {
+            first.lockInterruptibly();
+            try {
+                bothLocked.countDown();
+                bothLocked.await();
+                second.lockInterruptibly();
+                second.unlock();
+            } finally {
+                first.unlock();
+            }
+        } catch (InterruptedException e) {
+            // Interrupted by the test, to end the deadlock.
+        }
+    }
+}
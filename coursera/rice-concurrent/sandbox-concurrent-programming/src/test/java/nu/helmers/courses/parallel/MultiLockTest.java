@@ -0,0 +1,109 @@
+package nu.helmers.courses.parallel;
+
+import org.junit.Test;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Moves money between random pairs of accounts from several threads at once: every thread locks both accounts, in
+ * whatever order they come. With nested lock() calls this would deadlock sooner or later.
+ */
+public class MultiLockTest {
+
+    private static final int ACCOUNTS = 8;
+    private static final int TRANSFERS = 50_000;
+
+    private final Lock[] locks = IntStream.range(0, ACCOUNTS).mapToObj(i -> new ReentrantLock()).toArray(Lock[]::new);
+    private final long[] balances = LongStream.generate(() -> 1000).limit(ACCOUNTS).toArray();
+
+    @Test(timeout = 60_000)
+    public void lockAll() {
+        IntStream.range(0, 4).parallel().forEach(t -> {
+            for (int i = 0; i < TRANSFERS; i++) {
+                int from = ThreadLocalRandom.current().nextInt(ACCOUNTS);
+                int to = ThreadLocalRandom.current().nextInt(ACCOUNTS);
+                try (MultiLock.Held held = MultiLock.lockAll(locks[from], locks[to])) {
+                    transfer(from, to);
+                }
+            }
+        });
+
+        assertThat(LongStream.of(balances).sum(), is(ACCOUNTS * 1000L));
+        assertUnlocked();
+    }
+
+    @Test(timeout = 60_000)
+    public void tryLockAll() {
+        IntStream.range(0, 4).parallel().forEach(t -> {
+            for (int i = 0; i < TRANSFERS; i++) {
+                int from = ThreadLocalRandom.current().nextInt(ACCOUNTS);
+                int to = ThreadLocalRandom.current().nextInt(ACCOUNTS);
+                try (MultiLock.Held held = MultiLock.tryLockAll(1, TimeUnit.MINUTES, locks[from], locks[to])) {
+                    assertTrue(held != null);
+                    transfer(from, to);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+
+        assertThat(LongStream.of(balances).sum(), is(ACCOUNTS * 1000L));
+        assertUnlocked();
+    }
+
+    @Test
+    public void tryLockAllTimesOut() throws Exception {
+        Thread holder = new Thread(locks[1]::lock);
+        holder.start();
+        holder.join(); // The thread ends while holding the lock, so nobody can ever acquire it.
+
+        long startTime = System.nanoTime();
+        assertTrue(MultiLock.tryLockAll(50, TimeUnit.MILLISECONDS, locks[0], locks[1]) == null);
+        assertTrue(System.nanoTime() - startTime >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(locks[0].tryLock()); // released after the failed attempts
+    }
+
+    @Test
+    public void optimisticRead() {
+        StampedLock lock = new StampedLock();
+        long[] pair = new long[2]; // invariant: pair[0] == pair[1]
+
+        IntStream.range(0, 4).parallel().forEach(t -> {
+            for (int i = 0; i < 200_000; i++) {
+                if (t == 0 && i % 10 == 0) {
+                    long stamp = lock.writeLock();
+                    pair[0]++;
+                    pair[1]++;
+                    lock.unlockWrite(stamp);
+                } else {
+                    long difference = MultiLock.optimisticRead(lock, () -> pair[0] - pair[1]);
+                    assertThat(difference, is(0L));
+                }
+            }
+        });
+        assertThat(pair[0], is(20_000L));
+    }
+
+    private void transfer(int from, int to) {
+        long amount = ThreadLocalRandom.current().nextLong(10);
+        balances[from] -= amount;
+        balances[to] += amount;
+    }
+
+    private void assertUnlocked() {
+        for (Lock lock : locks) {
+            assertTrue(lock.tryLock());
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package nu.helmers.courses.parallel;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.LongStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/** Writes a bitmap file, maps it back in and compares its answers with {@link SegmentedSieve}. */
+public class PrimeBitmapFileTest {
+
+    @Test
+    public void test() throws IOException {
+        long limit = 10_000_019; // not a multiple of 30, so the last byte is only partially used
+        Path file = Files.createTempFile("primes", ".bitmap");
+        try {
+            long startTime = System.nanoTime();
+            PrimeBitmapFile.write(file, limit);
+            System.out.printf("Wrote %d bytes in %.3f ms%n", Files.size(file), (System.nanoTime() - startTime) / 1e6);
+
+            startTime = System.nanoTime();
+            try (PrimeBitmapFile bitmap = PrimeBitmapFile.open(file)) {
+                System.out.printf("Opened in %.3f ms%n", (System.nanoTime() - startTime) / 1e6);
+                assertThat(bitmap.getLimit(), is(limit));
+
+                long[] expected = SegmentedSieve.primesInRange(0, limit);
+                long[] isPrime = LongStream.rangeClosed(-1, limit).filter(bitmap::isPrime).toArray();
+                assertArrayEquals(expected, isPrime);
+                assertThat(bitmap.primeCount(limit), is((long) expected.length));
+                for (int k = 0; k < expected.length; k += 997) {
+                    assertThat(bitmap.primeCount(expected[k]), is(k + 1L));
+                    assertThat(bitmap.primeCount(expected[k] - 1), is((long) k));
+                }
+                for (long n = -1; n <= 120; n++) {
+                    long count = n;
+                    assertThat("n = " + n, bitmap.primeCount(n), is(LongStream.of(expected).filter(p -> p <= count)
+                            .count()));
+                }
+
+                assertArrayEquals(SegmentedSieve.primesInRange(9_999_000, limit),
+                        primesInRange(bitmap, 9_999_000, limit));
+                assertArrayEquals(new long[] {2, 3, 5, 7}, primesInRange(bitmap, 0, 10));
+                assertArrayEquals(new long[] {5, 7}, primesInRange(bitmap, 4, 8));
+                assertArrayEquals(new long[] {31}, primesInRange(bitmap, 30, 31));
+
+                try {
+                    bitmap.isPrime(limit + 1);
+                    fail("Expected an exception beyond the bound");
+                } catch (IllegalArgumentException expectedException) {
+                    // as expected
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void notABitmap() throws IOException {
+        Path file = Files.createTempFile("primes", ".bitmap");
+        try {
+            Files.write(file, "not a bitmap".getBytes());
+            PrimeBitmapFile.open(file).close();
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static long[] primesInRange(PrimeBitmapFile bitmap, long from, long to) {
+        long[][] primes = {new long[16]};
+        int[] size = {0};
+        bitmap.forEachPrime(from, to, prime -> {
+            if (size[0] == primes[0].length) {
+                primes[0] = Arrays.copyOf(primes[0], 2 * size[0]);
+            }
+            primes[0][size[0]++] = prime;
+        });
+        return Arrays.copyOf(primes[0], size[0]);
+    }
+}
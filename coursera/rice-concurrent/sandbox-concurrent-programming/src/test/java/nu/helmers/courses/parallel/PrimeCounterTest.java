@@ -0,0 +1,40 @@
+package nu.helmers.courses.parallel;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/** Compares {@link PrimeCounter} with the sieve, and with known values beyond the reach of the sieve. */
+public class PrimeCounterTest {
+
+    @Test
+    public void test() {
+        int[] primes = SegmentedSieve.basePrimes(100_000);
+        int count = 0;
+        for (int n = -1; n <= 100_000; n++) {
+            if (count < primes.length && primes[count] == n) {
+                count++;
+            }
+            assertThat("pi(" + n + ")", PrimeCounter.primeCount(n), is((long) count));
+        }
+
+        for (long x = 1_000_000; x <= 1_000_000_000; x = x * 7 + 3) {
+            assertThat("pi(" + x + ")", PrimeCounter.primeCount(x), is(SegmentedSieve.countPrimes(x)));
+        }
+    }
+
+    @Test
+    public void largeValues() {
+        assertThat(PrimeCounter.primeCount(10_000_000_000L), is(455_052_511L));
+
+        long startTime = System.nanoTime();
+        assertThat(PrimeCounter.primeCount(1_000_000_000_000L), is(37_607_912_018L));
+        System.out.printf("pi(10^12) took %.3f ms%n", (System.nanoTime() - startTime) / 1e6);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void beyondTheLargestX() {
+        PrimeCounter.primeCount(PrimeCounter.MAX_X + 1);
+    }
+}
@@ -0,0 +1,73 @@
+package nu.helmers.courses.parallel;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/** Checks the answers of {@link Primes} against a plain sieve, also while several threads extend the table. */
+public class PrimesTest {
+
+    @Test
+    public void test() {
+        int limit = 3_000_000;
+        int[] expected = SegmentedSieve.basePrimes(limit);
+
+        assertArrayEquals(IntStream.of(expected).asLongStream().toArray(), Primes.primesInRange(0, limit));
+        for (int k = 1; k <= expected.length; k += 997) {
+            assertThat(Primes.nthPrime(k), is((long) expected[k - 1]));
+            assertThat(Primes.primeCount(expected[k - 1]), is((long) k));
+            assertThat(Primes.primeCount(expected[k - 1] - 1), is((long) k - 1));
+        }
+        int[] isPrime = IntStream.rangeClosed(-3, 10_000).filter(n -> Primes.isPrime(n)).toArray();
+        assertArrayEquals(Arrays.copyOf(expected, 1229), isPrime);
+
+        assertArrayEquals(new long[] {101, 103, 107, 109, 113}, Primes.primesInRange(100, 113));
+        assertArrayEquals(new long[] {3, 5}, Primes.primesInRange(3, 6));
+        assertArrayEquals(new long[0], Primes.primesInRange(114, 126));
+    }
+
+    @Test
+    public void largeValues() {
+        assertThat(Primes.nthPrime(10_000_000), is(179_424_673L));
+        assertThat(Primes.primeCount(100_000_000), is(5_761_455L));
+        assertThat(Primes.isPrime(179_424_673L), is(true));
+        assertThat(Primes.isPrime(179_424_673L * 3), is(false));
+    }
+
+    @Test
+    public void beyondTheLargestNumber() {
+        assertRejected(() -> Primes.isPrime(Primes.MAX_N + 1));
+        assertRejected(() -> Primes.isPrime(Long.MAX_VALUE));
+        assertRejected(() -> Primes.primeCount(Primes.MAX_N + 1));
+        assertRejected(() -> Primes.primesInRange(1_000, 1L << 62));
+        assertRejected(() -> Primes.nthPrime(Primes.MAX_N));
+        // Still fine: a question that doesn't need the table (but is within the limit).
+        assertThat(Primes.isPrime(Primes.MAX_N), is(false));
+    }
+
+    @Test
+    public void concurrentReaders() {
+        // Every thread asks for a different range, so they all trigger (or wait for) extensions of the table.
+        long[] counts = LongStream.range(1, 33).parallel().map(i -> Primes.primeCount(i * 1_000_000)).toArray();
+
+        for (int i = 1; i < 33; i++) {
+            assertThat(counts[i - 1], is(SegmentedSieve.countPrimes(i * 1_000_000)));
+        }
+    }
+
+    private static void assertRejected(Runnable question) {
+        try {
+            question.run();
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
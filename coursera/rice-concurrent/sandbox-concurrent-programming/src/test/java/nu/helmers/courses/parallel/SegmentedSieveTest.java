@@ -0,0 +1,67 @@
+package nu.helmers.courses.parallel;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/** Checks the segmented sieve against a plain sieve, and against known values of the prime counting function. */
+public class SegmentedSieveTest {
+
+    @Test
+    public void agreesWithPlainSieve() {
+        int limit = 3 * 2 * SegmentedSieve.SEGMENT_BITS + 12_345; // more than three segments, the last one partial
+        int[] expected = SegmentedSieve.basePrimes(limit);
+
+        long[] primes = SegmentedSieve.primesInRange(0, limit);
+
+        assertArrayEquals(IntStream.of(expected).asLongStream().toArray(), primes);
+        for (int n : new int[] {0, 1, 2, 3, 4, 5, 100, 2 * SegmentedSieve.SEGMENT_BITS - 1,
+                2 * SegmentedSieve.SEGMENT_BITS, 2 * SegmentedSieve.SEGMENT_BITS + 1, limit}) {
+            assertThat("pi(" + n + ")", SegmentedSieve.countPrimes(n),
+                    is(IntStream.of(expected).filter(p -> p <= n).count()));
+        }
+    }
+
+    @Test
+    public void primesInRange() {
+        assertArrayEquals(new long[] {1_000_000_007L, 1_000_000_009L, 1_000_000_021L},
+                SegmentedSieve.primesInRange(1_000_000_000L, 1_000_000_021L));
+        assertArrayEquals(new long[] {2, 3, 5, 7}, SegmentedSieve.primesInRange(-10, 10));
+        assertArrayEquals(new long[0], SegmentedSieve.primesInRange(24, 28));
+    }
+
+    @Test
+    public void largestLimit() {
+        long from = SegmentedSieve.MAX_LIMIT - 10_000;
+        long[] expected = LongStream.rangeClosed(from, SegmentedSieve.MAX_LIMIT)
+                .filter(n -> BigInteger.valueOf(n).isProbablePrime(50))
+                .toArray();
+
+        assertArrayEquals(expected, SegmentedSieve.primesInRange(from, SegmentedSieve.MAX_LIMIT));
+        try {
+            SegmentedSieve.primesInRange(from, SegmentedSieve.MAX_LIMIT + 1);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void countPrimes() {
+        long[] expected = {4, 25, 168, 1_229, 9_592, 78_498, 664_579, 5_761_455, 50_847_534};
+        long limit = 10;
+        for (long count : expected) {
+            long startTime = System.nanoTime();
+            assertThat(SegmentedSieve.countPrimes(limit), is(count));
+            System.out.printf("pi(%d) = %d, completed in %8.3f ms\n", limit, count, (System.nanoTime() - startTime) / 1e6);
+            limit *= 10;
+        }
+    }
+}
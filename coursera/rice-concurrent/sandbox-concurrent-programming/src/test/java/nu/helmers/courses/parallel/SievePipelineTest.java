@@ -0,0 +1,58 @@
+package nu.helmers.courses.parallel;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/** Checks the pipeline of sieve actors against the segmented sieve. */
+public class SievePipelineTest {
+
+    @Test
+    public void test() throws InterruptedException {
+        long upperBound = 2_000_000;
+        long[] expected = SegmentedSieve.primesInRange(0, upperBound);
+
+        long[] primes = new long[expected.length];
+        int[] size = {0};
+        long startTime = System.nanoTime();
+        long count = new SievePipeline().run(upperBound, prime -> primes[size[0]++] = prime);
+        System.out.printf("Found %d primes in %8.3f ms\n", count, (System.nanoTime() - startTime) / 1e6);
+
+        assertThat(count, is((long) expected.length));
+        assertArrayEquals(expected, primes);
+    }
+
+    @Test
+    public void manySmallStages() throws InterruptedException {
+        long[] expected = SegmentedSieve.primesInRange(0, 100_000);
+        long[] primes = new long[expected.length];
+        int[] size = {0};
+
+        // Two primes per stage and tiny batches and mailboxes, to exercise spawning and backpressure.
+        long count = new SievePipeline(50, 2, 7, 2).run(100_000, prime -> primes[size[0]++] = prime);
+
+        assertThat(count, is((long) expected.length));
+        assertArrayEquals(expected, Arrays.copyOf(primes, size[0]));
+    }
+
+    @Test
+    public void failureIsReportedWithItsCause() throws InterruptedException {
+        RuntimeException failure = new RuntimeException("Consumer failed");
+        try {
+            // Tiny mailboxes, so the generator is likely to be waiting for a stage when the consumer fails.
+            new SievePipeline(4, 2, 7, 2).run(1_000_000, prime -> {
+                if (prime > 1000) {
+                    throw failure;
+                }
+            });
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertThat(e.getCause(), is((Throwable) failure));
+        }
+    }
+}
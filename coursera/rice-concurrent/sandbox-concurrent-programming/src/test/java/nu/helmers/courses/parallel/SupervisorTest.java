@@ -0,0 +1,136 @@
+package nu.helmers.courses.parallel;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Supervises many tasks at once, and tasks that finish, fail, time out or ignore their interrupt. */
+public class SupervisorTest {
+
+    @Test
+    public void manyTasks() throws InterruptedException {
+        // With virtual threads, 100k tasks are no problem; with platform threads, stay within reasonable limits.
+        int count = Supervisor.supportsVirtualThreads() ? 100_000 : 2_000;
+        try (Supervisor supervisor = new Supervisor()) {
+            List<Supervisor.Task> tasks = new ArrayList<>();
+            long startTime = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                tasks.add(supervisor.submit(() -> sleep(100), 1, TimeUnit.MINUTES));
+            }
+            for (Supervisor.Task task : tasks) {
+                task.await();
+                assertThat(task.getState(), is(Supervisor.State.FINISHED));
+            }
+            System.out.printf("Supervised %d tasks in %.3f ms: %s%n", count, (System.nanoTime() - startTime) / 1e6,
+                    supervisor);
+
+            assertThat(supervisor.getFinished(), is((long) count));
+            assertThat(supervisor.getLive(), is(0L));
+        }
+    }
+
+    @Test
+    public void outcomes() throws InterruptedException {
+        try (Supervisor supervisor = new Supervisor(Supervisor.defaultThreadFactory(), 100, TimeUnit.MILLISECONDS)) {
+            boolean[] release = {false};
+            Supervisor.Task finishing = supervisor.submit(() -> { }, 1, TimeUnit.MINUTES);
+            Supervisor.Task failing = supervisor.submit(() -> {
+                throw new IllegalStateException("failure");
+            }, 1, TimeUnit.MINUTES);
+            Supervisor.Task sleeping = supervisor.submit(() -> sleep(60_000), 50, TimeUnit.MILLISECONDS);
+            Supervisor.Task stubborn = supervisor.submit(() -> {
+                while (!isReleased(release)) {
+                    Thread.interrupted(); // Ignores interrupts.
+                }
+            }, 50, TimeUnit.MILLISECONDS);
+
+            for (Supervisor.Task task : new Supervisor.Task[] {finishing, failing, sleeping, stubborn}) {
+                assertTrue(task.await(10, TimeUnit.SECONDS));
+            }
+            assertThat(finishing.getState(), is(Supervisor.State.FINISHED));
+            assertThat(failing.getState(), is(Supervisor.State.FAILED));
+            assertTrue(failing.getFailure() instanceof IllegalStateException);
+            assertThat(sleeping.getState(), is(Supervisor.State.TIMED_OUT));
+            assertThat(stubborn.getState(), is(Supervisor.State.ABANDONED));
+
+            synchronized (release) {
+                release[0] = true;
+            }
+            System.out.println(supervisor);
+            assertThat(supervisor.getLive(), is(0L));
+            assertThat(supervisor.getFinished() + supervisor.getFailed(), is(2L));
+            assertThat(supervisor.getTimedOut(), is(1L));
+            assertThat(supervisor.getAbandoned(), is(1L));
+        }
+    }
+
+    @Test
+    public void overdueBeforeStarting() throws InterruptedException {
+        try (Supervisor supervisor = new Supervisor(Supervisor.defaultThreadFactory(), 10, TimeUnit.SECONDS)) {
+            Supervisor.Task task = supervisor.submit(() -> sleep(60_000), 0, TimeUnit.MILLISECONDS);
+
+            assertTrue(task.await(10, TimeUnit.SECONDS));
+            assertThat(task.getState(), is(Supervisor.State.TIMED_OUT));
+        }
+    }
+
+    @Test
+    public void closedSupervisorRejectsTasks() {
+        Supervisor supervisor = new Supervisor();
+        supervisor.close();
+        try {
+            supervisor.submit(() -> { }, 1, TimeUnit.MINUTES);
+            fail("Expected a RejectedExecutionException");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertThat(supervisor.getLive(), is(0L));
+    }
+
+    @Test
+    public void threadThatCannotStart() throws InterruptedException {
+        // A thread that was started already can't be started again, like a thread the OS has no room for.
+        ThreadFactory startedThreads = r -> {
+            Thread thread = new Thread(() -> { });
+            thread.start();
+            return thread;
+        };
+        try (Supervisor supervisor = new Supervisor(startedThreads, 1, TimeUnit.MILLISECONDS)) {
+            try {
+                supervisor.submit(() -> { }, 0, TimeUnit.MILLISECONDS);
+                fail("Expected an IllegalThreadStateException");
+            } catch (IllegalThreadStateException e) {
+                // expected
+            }
+            assertThat(supervisor.getLive(), is(0L));
+
+            Thread.sleep(100); // Long past the deadline and the grace period.
+            assertThat(supervisor.getLive(), is(0L));
+            assertThat(supervisor.getAbandoned(), is(0L));
+        }
+    }
+
+    private static boolean isReleased(boolean[] release) {
+        synchronized (release) {
+            return release[0];
+        }
+    }
+
+    /** Sleeps, and returns early (without failing) when interrupted. */
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
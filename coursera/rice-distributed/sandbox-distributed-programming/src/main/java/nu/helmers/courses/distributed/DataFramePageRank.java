@@ -0,0 +1,104 @@
+package nu.helmers.courses.distributed;
+
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.sql.DataFrame;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.SQLContext;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import scala.Tuple2;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.apache.spark.sql.functions.col;
+import static org.apache.spark.sql.functions.lit;
+import static org.apache.spark.sql.functions.sum;
+
+/**
+ * The PageRank iteration of {@link PageRank}, on DataFrames instead of RDDs.
+ * <p/>
+ * In the RDD version, every record is a Java object (a WebPage with a linked list of boxed Integers, a Tuple2 with a
+ * boxed Double), that Spark serializes with Java serialization whenever it shuffles, and that the garbage collector
+ * has to trace. A DataFrame has a schema, so Spark (the Tungsten engine, since 1.5) stores its rows in a compact binary
+ * format outside the Java heap, and generates code for the join and the aggregation, instead of calling our lambdas
+ * for every record.
+ * <p/>
+ * The graph is a DataFrame of edges (src, dst, outDegree): one row per link, with the number of links of the source
+ * page, so that an iteration doesn't have to count them again. The ranks are a DataFrame of (id, rank). Use the
+ * converters to get from and to the RDDs of the RDD version, and cache the edges: they're used in every iteration.
+ * <p/>
+ * Spark SQL shuffles into spark.sql.shuffle.partitions (200 by default) partitions, which is way too many for a small
+ * local cluster; set it to a small multiple of the number of cores.
+ */
+public final class DataFramePageRank {
+
+    private static final StructType EDGE_SCHEMA = DataTypes.createStructType(new StructField[]{
+            DataTypes.createStructField("src", DataTypes.IntegerType, false),
+            DataTypes.createStructField("dst", DataTypes.IntegerType, false),
+            DataTypes.createStructField("outDegree", DataTypes.IntegerType, false)
+    });
+
+    private static final StructType RANK_SCHEMA = DataTypes.createStructType(new StructField[]{
+            DataTypes.createStructField("id", DataTypes.IntegerType, false),
+            DataTypes.createStructField("rank", DataTypes.DoubleType, false)
+    });
+
+    private DataFramePageRank() {
+    }
+
+    /**
+     * Computes new ranks from the edges and the current ranks, exactly like {@link PageRank#calculate}: only pages
+     * with incoming links get a new rank.
+     *
+     * @param edges (src, dst, outDegree), see {@link #toEdges}
+     * @param ranks (id, rank), see {@link #toRanks}
+     * @return the new ranks, as (id, rank)
+     */
+    public static DataFrame calculate(DataFrame edges, DataFrame ranks) {
+        return edges.join(ranks, edges.col("src").equalTo(ranks.col("id")))
+                .groupBy(col("dst"))
+                .agg(sum(col("rank").divide(col("outDegree"))).as("contribution"))
+                // Apply damping factor:
+                .select(col("dst").as("id"), lit(0.15).plus(lit(0.85).multiply(col("contribution"))).as("rank"));
+    }
+
+    /** Converts pages to a DataFrame of edges (src, dst, outDegree). Pages without links don't have any edges. */
+    public static DataFrame toEdges(SQLContext sqlContext, JavaPairRDD<Integer, WebPage> pages) {
+        return sqlContext.createDataFrame(pages.values().flatMap(page -> {
+            List<Row> edges = new ArrayList<>(page.getDestinationCount());
+            for (Iterator<Integer> destinations = page.destinations(); destinations.hasNext(); ) {
+                edges.add(RowFactory.create(page.getId(), destinations.next(), page.getDestinationCount()));
+            }
+            return edges;
+        }), EDGE_SCHEMA);
+    }
+
+    /** Converts a DataFrame of edges back to pages, keyed on their id. Only pages with at least one link come back. */
+    public static JavaPairRDD<Integer, WebPage> toPages(DataFrame edges) {
+        return edges.select("src", "dst").javaRDD()
+                .mapToPair(row -> new Tuple2<>(row.getInt(0), row.getInt(1)))
+                .groupByKey()
+                .mapToPair(pageLinks -> {
+                    WebPage page = new WebPage(pageLinks._1());
+                    for (Integer destination : pageLinks._2()) {
+                        page.addDestination(destination);
+                    }
+                    return new Tuple2<>(pageLinks._1(), page);
+                });
+    }
+
+    /** Converts ranks, keyed on page id, to a DataFrame (id, rank). */
+    public static DataFrame toRanks(SQLContext sqlContext, JavaPairRDD<Integer, Double> ranks) {
+        return sqlContext.createDataFrame(ranks.map(rank -> RowFactory.create(rank._1(), rank._2())), RANK_SCHEMA);
+    }
+
+    /** Converts a DataFrame (id, rank) back to ranks keyed on page id. */
+    public static JavaPairRDD<Integer, Double> toRankRDD(DataFrame ranks) {
+        return ranks.select("id", "rank").javaRDD()
+                .mapToPair(row -> new Tuple2<>(row.getInt(0), row.getDouble(1)));
+    }
+}
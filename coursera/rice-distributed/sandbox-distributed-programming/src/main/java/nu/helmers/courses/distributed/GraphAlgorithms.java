@@ -0,0 +1,137 @@
+package nu.helmers.courses.distributed;
+
+import java.util.Arrays;
+
+/**
+ * Graph algorithms on arrays of web pages, all of them iterations of a (local) sparse matrix-vector multiplication
+ * over some semiring, see {@link SpMV}. Every algorithm allocates its vectors once, and then only swaps them.
+ * <p/>
+ * Like {@link SparseMatrix}, the algorithms assume that the pages of a graph of n pages have ids 0 to n-1.
+ */
+public final class GraphAlgorithms {
+
+    private static final double UNREACHED = Double.POSITIVE_INFINITY;
+
+    private GraphAlgorithms() {
+    }
+
+    /**
+     * Runs the given number of PageRank iterations, and returns the new ranks. Every iteration is the one of the
+     * sequential reference in PageRankTest, which is not quite the one of {@link PageRank#calculate}: here, every page
+     * gets a new rank, 0.15 if it has no incoming links. PageRank.calculate drops the pages without incoming links from
+     * the ranks, so from the next iteration on, their links no longer contribute to the pages they link to either. The
+     * two only agree for graphs where every page has an incoming link.
+     */
+    public static double[] pageRank(WebPage[] pages, double[] ranks, int iterations) {
+        SparseMatrix transitions = SparseMatrix.incoming(pages, SparseMatrix.EdgeWeight.INVERSE_OUT_DEGREE);
+        double[] x = ranks.clone();
+        double[] y = new double[x.length];
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            SpMV.multiply(transitions, x, y, Semiring.PLUS_TIMES);
+            for (int i = 0; i < y.length; i++) {
+                y[i] = 0.15 + 0.85 * y[i];
+            }
+            double[] swap = x;
+            x = y;
+            y = swap;
+        }
+        return x;
+    }
+
+    /**
+     * Returns the BFS level of every page: the minimum number of links to follow from the source page to get there,
+     * or -1 if there's no way to get there at all. Every level is an OR_AND multiplication of the links with the
+     * pages found in the previous level.
+     */
+    public static int[] bfsLevels(WebPage[] pages, int source) {
+        SparseMatrix links = SparseMatrix.incoming(pages, SparseMatrix.EdgeWeight.ONE);
+        checkSource(source, links.size());
+        int[] levels = new int[links.size()];
+        Arrays.fill(levels, -1);
+        levels[source] = 0;
+
+        double[] frontier = new double[links.size()];
+        double[] reached = new double[links.size()];
+        frontier[source] = 1;
+        for (int level = 1; ; level++) {
+            SpMV.multiply(links, frontier, reached, Semiring.OR_AND);
+            boolean found = false;
+            for (int i = 0; i < reached.length; i++) {
+                boolean isNew = reached[i] != 0 && levels[i] < 0;
+                if (isNew) {
+                    levels[i] = level;
+                    found = true;
+                }
+                frontier[i] = isNew ? 1 : 0;
+            }
+            if (!found) {
+                return levels;
+            }
+        }
+    }
+
+    /**
+     * Returns the length of the shortest path from the source page to every page (infinity if there's none), given
+     * a matrix of link lengths. With {@link SparseMatrix.EdgeWeight#ONE}, that's the number of links on the path.
+     * <p/>
+     * This is Bellman-Ford: every iteration is a MIN_PLUS multiplication, which extends all paths found so far with
+     * one link, and keeps the shortest. After at most n-1 iterations nothing changes anymore (for lengths >= 0).
+     */
+    public static double[] shortestPaths(SparseMatrix lengths, int source) {
+        checkSource(source, lengths.size());
+        double[] distances = new double[lengths.size()];
+        Arrays.fill(distances, UNREACHED);
+        distances[source] = 0;
+
+        double[] extended = new double[lengths.size()];
+        for (int iteration = 1; iteration < lengths.size(); iteration++) {
+            SpMV.multiply(lengths, distances, extended, Semiring.MIN_PLUS);
+            if (!keepMinimum(distances, extended)) {
+                break;
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * Returns the (weakly) connected components, ignoring the direction of links: for every page, the smallest id in
+     * its component. Every page starts with its own id as label, and every iteration (a MIN_PLUS multiplication with
+     * links of length 0) gives every page the smallest label of its neighbours, until the labels don't change.
+     */
+    public static int[] connectedComponents(WebPage[] pages) {
+        SparseMatrix links = SparseMatrix.undirected(pages, SparseMatrix.EdgeWeight.ZERO);
+        double[] labels = new double[links.size()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = i;
+        }
+
+        double[] neighbourLabels = new double[links.size()];
+        do {
+            SpMV.multiply(links, labels, neighbourLabels, Semiring.MIN_PLUS);
+        } while (keepMinimum(labels, neighbourLabels));
+
+        int[] components = new int[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            components[i] = (int) labels[i];
+        }
+        return components;
+    }
+
+    private static void checkSource(int source, int n) {
+        if (source < 0 || source >= n) {
+            throw new IllegalArgumentException("Source " + source + " is not in [0, " + n + ")");
+        }
+    }
+
+    /** Sets values[i] to candidates[i] where that's smaller; returns whether any value changed. */
+    private static boolean keepMinimum(double[] values, double[] candidates) {
+        boolean changed = false;
+        for (int i = 0; i < values.length; i++) {
+            if (candidates[i] < values[i]) {
+                values[i] = candidates[i];
+                changed = true;
+            }
+        }
+        return changed;
+    }
+}
@@ -6,8 +6,6 @@ import scala.Tuple2;
 import scala.Tuple3;
 
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -55,32 +53,11 @@ public final class PageRank {
         return calculatePageRank(pages, ranks);
     }
 
-    private static JavaPairRDD<Integer, Double> calculatePageRank(JavaPairRDD<Integer, WebPage> pages, JavaPairRDD<Integer, Double> ranks) {
-        JavaPairRDD<Integer, Double> newRanks = pages.join(ranks)
-                .flatMapToPair(pair -> {
-                    // For every page, create a list assigning the contribution of this page (value) to each destination
-                    // page (key).
-                    WebPage page = pair._2()._1();
-                    Double rank = pair._2()._2();
-
-                    List<Tuple2<Integer, Double>> contributions = new LinkedList<>();
-                    Iterator<Integer> destinations = page.destinations();
-                    double destinationCount = (double) page.getDestinationCount();
-
-                    while (destinations.hasNext()) {
-                        Integer destinationPageId = destinations.next();
-                        double contribution = rank / destinationCount;
-
-                        contributions.add(new Tuple2<>(destinationPageId, contribution));
-                    }
-
-                    // Because we return a list (generally a page has multiple destination pages) we flatten the result.
-                    return contributions;
-                });
-
-        // Since a page can be referenced from different pages, the resulting JavaPairRDD can contain multiple entries
-        // for the same pageId (one contribution for each source page):
-        return newRanks.reduceByKey((contrib1, contrib2) -> contrib1 + contrib2)
+    private static JavaPairRDD<Integer, Double> calculatePageRank(JavaPairRDD<Integer, WebPage> pages,
+                                                                  JavaPairRDD<Integer, Double> ranks) {
+        // The sum over all pages A linking to B of rank(A) / out_count(A) is a sparse matrix-vector multiplication:
+        // every page sends rank / out_count to each of its destinations, and the contributions per page are summed.
+        return SpMV.multiply(pages, ranks, SparseMatrix.EdgeWeight.INVERSE_OUT_DEGREE, Semiring.PLUS_TIMES)
                 // Apply damping factor:
                 .mapValues(c -> 0.15 + (0.85 * c));
     }
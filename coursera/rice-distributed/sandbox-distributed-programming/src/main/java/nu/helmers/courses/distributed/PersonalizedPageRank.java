@@ -0,0 +1,229 @@
+package nu.helmers.courses.distributed;
+
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.broadcast.Broadcast;
+import scala.Tuple2;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Personalized PageRank: the PageRank of every page from the point of view of a seed page (a user's home page, say),
+ * where the random surfer doesn't jump to a random page, but restarts at the seed. Computing that with
+ * {@link PageRank#calculate} would take a full run of iterations per seed, which is way too expensive for thousands of
+ * seeds.
+ * <p/>
+ * Instead, this estimates it with Monte Carlo random walks: start at the seed, and at every page, either restart (with
+ * probability 0.15, or when the page has no links), or follow a random link. The fraction of all visits that went to a
+ * page converges to its personalized PageRank, and the pages that matter (the top k) converge first. More walks per
+ * seed give a better estimate: the error shrinks with the square root of the number of walks.
+ * <p/>
+ * The seeds are divided into one range per thread, and processed in parallel: locally on the common fork/join pool,
+ * or on Spark with a partition per core, with the graph broadcast to every executor as a {@link SparseMatrix} of
+ * outgoing links. A range reuses one visit counter (an int per page) for all its seeds, so walking allocates nothing
+ * but that counter, once per thread, and the result. Every walk takes the same number of steps on average, so equal
+ * ranges balance the load well enough. Every seed has a random generator of its own, derived from the seed page id,
+ * so the results don't depend on how seeds are divided over threads.
+ */
+public final class PersonalizedPageRank implements Serializable {
+
+    public static final double RESTART_PROBABILITY = 0.15;
+
+    /**
+     * The largest number of walks per seed. A walk visits 1 / {@value #RESTART_PROBABILITY} pages on average, so the
+     * visits of a seed stay well below Integer.MAX_VALUE, the largest count of the visit counter.
+     */
+    public static final int MAX_WALKS_PER_SEED = 100_000_000;
+
+    private final int walksPerSeed;
+    private final int topK;
+    private final long randomSeed;
+
+    /**
+     * @param walksPerSeed the number of random walks per seed: the accuracy knob, at most {@link #MAX_WALKS_PER_SEED}
+     * @param topK         the number of pages (with the highest score) to return per seed
+     */
+    public PersonalizedPageRank(int walksPerSeed, int topK) {
+        this(walksPerSeed, topK, 0);
+    }
+
+    /** As above, with a seed for the random generators, for different (but still reproducible) estimates. */
+    public PersonalizedPageRank(int walksPerSeed, int topK, long randomSeed) {
+        if (walksPerSeed <= 0 || topK <= 0) {
+            throw new IllegalArgumentException("walksPerSeed and topK must be positive, but are " + walksPerSeed
+                    + " and " + topK);
+        }
+        if (walksPerSeed > MAX_WALKS_PER_SEED) {
+            throw new IllegalArgumentException("walksPerSeed must be at most " + MAX_WALKS_PER_SEED + ", but is "
+                    + walksPerSeed);
+        }
+        this.walksPerSeed = walksPerSeed;
+        this.topK = topK;
+        this.randomSeed = randomSeed;
+    }
+
+    /**
+     * Returns the top k pages for each of the seed page ids, highest score first.
+     *
+     * @throws IllegalArgumentException if a seed is not the id of one of the pages
+     */
+    public Map<Integer, List<Score>> calculate(WebPage[] pages, int[] seeds) {
+        SparseMatrix links = SparseMatrix.outgoing(pages, SparseMatrix.EdgeWeight.ONE);
+        for (int seed : seeds) {
+            checkSeed(seed, links.size());
+        }
+        // One range per worker, plus one for the calling thread, which joins in.
+        int ranges = Math.max(1, Math.min(seeds.length, ForkJoinPool.getCommonPoolParallelism() + 1));
+        int rangeSize = (seeds.length + ranges - 1) / ranges;
+        List<List<Score>> results = IntStream.range(0, ranges).parallel()
+                .mapToObj(range -> {
+                    Walker walker = new Walker(links);
+                    int start = Math.min(seeds.length, range * rangeSize);
+                    int end = Math.min(seeds.length, start + rangeSize);
+                    List<List<Score>> rangeResults = new ArrayList<>(end - start);
+                    for (int i = start; i < end; i++) {
+                        rangeResults.add(walker.walk(seeds[i]));
+                    }
+                    return rangeResults;
+                })
+                .collect(ArrayList::new, List::addAll, List::addAll);
+
+        Map<Integer, List<Score>> scores = new HashMap<>();
+        for (int i = 0; i < seeds.length; i++) {
+            scores.put(seeds[i], results.get(i));
+        }
+        return scores;
+    }
+
+    /**
+     * Returns the top k pages for each of the seed page ids, computed on Spark: the pages are collected and broadcast
+     * as a whole, because a walk can go anywhere in the graph, and the seeds are divided into a partition per core.
+     *
+     * @throws IllegalArgumentException if a seed is not the id of one of the pages
+     */
+    public JavaPairRDD<Integer, List<Score>> calculate(JavaSparkContext context, JavaPairRDD<Integer, WebPage> pages,
+                                                      List<Integer> seeds) {
+        WebPage[] pageArray = pages.values().collect().toArray(new WebPage[0]);
+        SparseMatrix matrix = SparseMatrix.outgoing(pageArray, SparseMatrix.EdgeWeight.ONE);
+        // Here, rather than in a task on some executor.
+        for (int seed : seeds) {
+            checkSeed(seed, matrix.size());
+        }
+        Broadcast<SparseMatrix> links = context.broadcast(matrix);
+
+        return context.parallelize(seeds, Math.max(1, Math.min(seeds.size(), context.defaultParallelism())))
+                .mapPartitionsToPair(range -> {
+                    Walker walker = new Walker(links.value());
+                    List<Tuple2<Integer, List<Score>>> rangeResults = new ArrayList<>();
+                    while (range.hasNext()) {
+                        int seed = range.next();
+                        rangeResults.add(new Tuple2<>(seed, walker.walk(seed)));
+                    }
+                    return rangeResults;
+                });
+    }
+
+    private static void checkSeed(int seed, int n) {
+        if (seed < 0 || seed >= n) {
+            throw new IllegalArgumentException("Seed " + seed + " is not in [0, " + n + ")");
+        }
+    }
+
+    /** The random walks from one seed after the other, counting visits in an array that's reused for every seed. */
+    private final class Walker {
+        private final int[] rowStart;
+        private final int[] destinations;
+        private final int[] visits;
+        /** The pages with visits > 0, in visited[0 .. visitedCount). */
+        private int[] visited = new int[1024];
+        private int visitedCount;
+
+        Walker(SparseMatrix links) {
+            this.rowStart = links.rowStart();
+            this.destinations = links.columns();
+            this.visits = new int[links.size()];
+        }
+
+        List<Score> walk(int seed) {
+            SplittableRandom random = new SplittableRandom(randomSeed ^ (seed * 0x9E3779B97F4A7C15L));
+            long totalVisits = 0;
+            for (int w = 0; w < walksPerSeed; w++) {
+                int page = seed;
+                while (true) {
+                    visit(page);
+                    totalVisits++;
+                    int degree = rowStart[page + 1] - rowStart[page];
+                    if (degree == 0 || random.nextDouble() < RESTART_PROBABILITY) {
+                        break;
+                    }
+                    page = destinations[rowStart[page] + random.nextInt(degree)];
+                }
+            }
+            return topScores(totalVisits);
+        }
+
+        private void visit(int page) {
+            if (visits[page]++ == 0) {
+                if (visitedCount == visited.length) {
+                    visited = Arrays.copyOf(visited, 2 * visitedCount);
+                }
+                visited[visitedCount++] = page;
+            }
+        }
+
+        /** Returns the pages with the most visits, and resets the counts of all visited pages for the next seed. */
+        private List<Score> topScores(long totalVisits) {
+            // Sort (visits, page) pairs as longs: by visits, and for equal visits, lower page ids last, so that they
+            // come first when we take the pairs from the end.
+            long[] pairs = new long[visitedCount];
+            for (int i = 0; i < visitedCount; i++) {
+                int page = visited[i];
+                pairs[i] = ((long) visits[page] << 32) | (Integer.MAX_VALUE - page);
+                visits[page] = 0;
+            }
+            visitedCount = 0;
+            Arrays.sort(pairs);
+
+            int k = Math.min(topK, pairs.length);
+            List<Score> scores = new ArrayList<>(k);
+            for (int i = pairs.length - 1; i >= pairs.length - k; i--) {
+                int page = Integer.MAX_VALUE - (int) pairs[i];
+                scores.add(new Score(page, (double) (pairs[i] >>> 32) / totalVisits));
+            }
+            return scores;
+        }
+    }
+
+    /** A page and its estimated personalized PageRank. The scores of all pages for a seed add up to 1. */
+    public static final class Score implements Serializable {
+        private final int page;
+        private final double score;
+
+        Score(int page, double score) {
+            this.page = page;
+            this.score = score;
+        }
+
+        public int getPage() {
+            return page;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return page + "=" + score;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package nu.helmers.courses.distributed;
+
+/**
+ * The two operations that a sparse matrix-vector multiplication y = A x uses to combine values: y[i] is the "sum" of
+ * the "products" A[i][j] * x[j]. With ordinary plus and times, that's the usual multiplication, and one PageRank
+ * iteration. With other operations, the same kernel computes other graph algorithms:
+ * <ul>
+ *     <li>PLUS_TIMES: PageRank, with A[i][j] = 1 / outDegree(j) for a link from j to i.</li>
+ *     <li>MIN_PLUS: shortest paths (A holds the edge lengths, x the distances so far), and connected components (with
+ *     all edges 0, so that every node takes the smallest label of its neighbours).</li>
+ *     <li>OR_AND: reachability, like a BFS level: with 1 for true and 0 for false, y[i] = 1 if a node in x links to i.
+ *     </li>
+ * </ul>
+ * The constants are serializable, so Spark closures can capture them.
+ */
+public enum Semiring {
+
+    PLUS_TIMES {
+        @Override
+        public double zero() {
+            return 0;
+        }
+
+        @Override
+        public double add(double a, double b) {
+            return a + b;
+        }
+
+        @Override
+        public double multiply(double a, double b) {
+            return a * b;
+        }
+    },
+
+    MIN_PLUS {
+        @Override
+        public double zero() {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        @Override
+        public double add(double a, double b) {
+            return Math.min(a, b);
+        }
+
+        @Override
+        public double multiply(double a, double b) {
+            return a + b;
+        }
+    },
+
+    /** Booleans as 0 and 1: or is max, and is min. */
+    OR_AND {
+        @Override
+        public double zero() {
+            return 0;
+        }
+
+        @Override
+        public double add(double a, double b) {
+            return Math.max(a, b);
+        }
+
+        @Override
+        public double multiply(double a, double b) {
+            return Math.min(a, b);
+        }
+    };
+
+    /** The identity of add: the result for a row without entries. */
+    public abstract double zero();
+
+    public abstract double add(double a, double b);
+
+    public abstract double multiply(double a, double b);
+}
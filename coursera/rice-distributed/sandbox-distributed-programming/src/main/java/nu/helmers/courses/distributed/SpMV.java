@@ -0,0 +1,145 @@
+package nu.helmers.courses.distributed;
+
+import org.apache.spark.api.java.JavaPairRDD;
+import scala.Tuple2;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sparse matrix-vector multiplication y = A x over a {@link Semiring}, the kernel of PageRank, BFS, shortest paths and
+ * connected components (see {@link GraphAlgorithms}). There are two implementations:
+ * <ul>
+ *     <li>Local, on a {@link SparseMatrix} and double arrays: the rows are divided over the common fork/join pool.
+ *     The caller passes in the result array, so iterative algorithms can swap two arrays instead of allocating a new
+ *     one every iteration, and the inner loop is specialized per semiring, so it doesn't make a (megamorphic) call per
+ *     entry.</li>
+ *     <li>Spark, on an RDD of WebPages and an RDD of values: every page sends the product of its value and the weight
+ *     of a link to all pages it links to, and the products per page are added up.</li>
+ * </ul>
+ */
+public final class SpMV {
+
+    /** Below this number of matrix entries, a task doesn't split any further. */
+    private static final int THRESHOLD = 1 << 14;
+
+    private SpMV() {
+    }
+
+    /**
+     * Computes y = A x. The arrays x and y must have the size of the matrix, and must not be the same array.
+     */
+    public static void multiply(SparseMatrix a, double[] x, double[] y, Semiring semiring) {
+        if (x.length != a.size() || y.length != a.size()) {
+            throw new IllegalArgumentException("Matrix of size " + a.size() + ", but vectors of size " + x.length
+                    + " and " + y.length);
+        }
+        if (x == y) {
+            throw new IllegalArgumentException("x and y must be different arrays");
+        }
+        if (a.nonZeros() <= THRESHOLD) {
+            multiplyRows(a, x, y, semiring, 0, a.size());
+        } else {
+            ForkJoinPool.commonPool().invoke(new MultiplyTask(a, x, y, semiring, 0, a.size()));
+        }
+    }
+
+    /**
+     * Computes y = A x, where A is given by the links of the pages and their weights, and x by a value per page id.
+     * Only pages with at least one incoming link (from a page that has a value in x) have a value in y: the others
+     * would get the zero of the semiring.
+     */
+    public static JavaPairRDD<Integer, Double> multiply(JavaPairRDD<Integer, WebPage> pages,
+                                                        JavaPairRDD<Integer, Double> x,
+                                                        SparseMatrix.EdgeWeight weight, Semiring semiring) {
+        return pages.join(x)
+                .flatMapToPair(pair -> {
+                    WebPage page = pair._2()._1();
+                    double product = semiring.multiply(weight.of(page), pair._2()._2());
+
+                    List<Tuple2<Integer, Double>> products = new ArrayList<>(page.getDestinationCount());
+                    for (Iterator<Integer> destinations = page.destinations(); destinations.hasNext(); ) {
+                        products.add(new Tuple2<>(destinations.next(), product));
+                    }
+                    return products;
+                })
+                .reduceByKey(semiring::add);
+    }
+
+    private static void multiplyRows(SparseMatrix a, double[] x, double[] y, Semiring semiring, int from, int to) {
+        int[] rowStart = a.rowStart();
+        int[] columns = a.columns();
+        double[] values = a.values();
+        switch (semiring) {
+            case PLUS_TIMES:
+                for (int i = from; i < to; i++) {
+                    double sum = 0;
+                    for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                        sum += values[k] * x[columns[k]];
+                    }
+                    y[i] = sum;
+                }
+                break;
+            case MIN_PLUS:
+                for (int i = from; i < to; i++) {
+                    double min = Double.POSITIVE_INFINITY;
+                    for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                        min = Math.min(min, values[k] + x[columns[k]]);
+                    }
+                    y[i] = min;
+                }
+                break;
+            case OR_AND:
+                for (int i = from; i < to; i++) {
+                    double max = 0;
+                    for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                        max = Math.max(max, Math.min(values[k], x[columns[k]]));
+                    }
+                    y[i] = max;
+                }
+                break;
+            default:
+                for (int i = from; i < to; i++) {
+                    double sum = semiring.zero();
+                    for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                        sum = semiring.add(sum, semiring.multiply(values[k], x[columns[k]]));
+                    }
+                    y[i] = sum;
+                }
+        }
+    }
+
+    /** Multiplies a range of rows, splitting it in halves as long as they have enough entries. */
+    private static final class MultiplyTask extends RecursiveAction {
+        private final SparseMatrix a;
+        private final double[] x;
+        private final double[] y;
+        private final Semiring semiring;
+        private final int from;
+        private final int to;
+
+        MultiplyTask(SparseMatrix a, double[] x, double[] y, Semiring semiring, int from, int to) {
+            this.a = a;
+            this.x = x;
+            this.y = y;
+            this.semiring = semiring;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            int[] rowStart = a.rowStart();
+            if (to - from <= 1 || rowStart[to] - rowStart[from] <= THRESHOLD) {
+                multiplyRows(a, x, y, semiring, from, to);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new MultiplyTask(a, x, y, semiring, from, mid),
+                        new MultiplyTask(a, x, y, semiring, mid, to));
+            }
+        }
+    }
+}
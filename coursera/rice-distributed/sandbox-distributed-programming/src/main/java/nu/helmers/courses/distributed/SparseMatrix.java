@@ -0,0 +1,173 @@
+package nu.helmers.courses.distributed;
+
+import java.io.Serializable;
+import java.util.Iterator;
+
+/**
+ * A graph of web pages as a sparse matrix in CSR (compressed sparse row) format: the column indices and values of the
+ * non-zero entries, row after row, in two flat arrays, plus the offset at which every row starts. Compared to the
+ * WebPage objects (a linked list of boxed Integers each), that's compact, and a multiplication runs through it
+ * sequentially, without any pointer chasing.
+ * <p/>
+ * Row i holds the links <em>to</em> page i: entry A[i][j] is the weight of the link from page j to page i. That way,
+ * y = A x computes every y[i] from the pages that link to i, so rows can be computed in parallel without two threads
+ * ever writing to the same y[i]. A page that links to another page twice has two entries for that link.
+ * <p/>
+ * Page ids are the row and column indices: the pages of a graph of n pages must have ids 0 to n-1.
+ * <p/>
+ * A matrix is serializable, so it can be broadcast to Spark executors as a whole.
+ */
+public final class SparseMatrix implements Serializable {
+
+    /** How to weigh a link, given the page it comes from. */
+    public enum EdgeWeight {
+        ONE,
+        ZERO,
+        /** 1 / the number of links of the page: the fraction of its rank that a page passes on in PageRank. */
+        INVERSE_OUT_DEGREE;
+
+        double of(WebPage source) {
+            switch (this) {
+                case ONE:
+                    return 1;
+                case ZERO:
+                    return 0;
+                default:
+                    return 1.0 / source.getDestinationCount();
+            }
+        }
+    }
+
+    private final int size;
+    private final int[] rowStart;
+    private final int[] columns;
+    private final double[] values;
+
+    private SparseMatrix(int size, int[] rowStart, int[] columns, double[] values) {
+        this.size = size;
+        this.rowStart = rowStart;
+        this.columns = columns;
+        this.values = values;
+    }
+
+    /** Returns the matrix of the links between the pages: A[i][j] is the weight of a link from page j to page i. */
+    public static SparseMatrix incoming(WebPage[] pages, EdgeWeight weight) {
+        return build(pages, weight, false);
+    }
+
+    /**
+     * Returns the transpose of {@link #incoming}: row i holds the links <em>from</em> page i, so A[i][j] is the
+     * weight of a link from page i to page j. For following links, like a random walk does.
+     */
+    public static SparseMatrix outgoing(WebPage[] pages, EdgeWeight weight) {
+        return incoming(pages, weight).transpose();
+    }
+
+    /**
+     * Returns the matrix of the links in both directions: A[i][j] and A[j][i] are the weight of a link from page j to
+     * page i. For algorithms that ignore the direction of links, like connected components.
+     */
+    public static SparseMatrix undirected(WebPage[] pages, EdgeWeight weight) {
+        return build(pages, weight, true);
+    }
+
+    private static SparseMatrix build(WebPage[] pages, EdgeWeight weight, boolean bothDirections) {
+        int n = pages.length;
+
+        // First pass: count the entries of every row, in rowStart[i + 1].
+        int[] rowStart = new int[n + 1];
+        boolean[] seen = new boolean[n];
+        for (WebPage page : pages) {
+            int source = index(page, n);
+            if (seen[source]) {
+                throw new IllegalArgumentException("Duplicate page id " + source);
+            }
+            seen[source] = true;
+            for (Iterator<Integer> destinations = page.destinations(); destinations.hasNext(); ) {
+                rowStart[index(destinations.next(), n) + 1]++;
+                if (bothDirections) {
+                    rowStart[source + 1]++;
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            rowStart[i + 1] += rowStart[i];
+        }
+
+        // Second pass: fill the rows, using next[i] as the position of the next entry of row i.
+        int[] columns = new int[rowStart[n]];
+        double[] values = new double[rowStart[n]];
+        int[] next = new int[n];
+        System.arraycopy(rowStart, 0, next, 0, n);
+        for (WebPage page : pages) {
+            int source = page.getId();
+            double value = weight.of(page);
+            for (Iterator<Integer> destinations = page.destinations(); destinations.hasNext(); ) {
+                int destination = destinations.next();
+                columns[next[destination]] = source;
+                values[next[destination]++] = value;
+                if (bothDirections) {
+                    columns[next[source]] = destination;
+                    values[next[source]++] = value;
+                }
+            }
+        }
+        return new SparseMatrix(n, rowStart, columns, values);
+    }
+
+    private SparseMatrix transpose() {
+        int[] transposedStart = new int[size + 1];
+        for (int k = 0; k < nonZeros(); k++) {
+            transposedStart[columns[k] + 1]++;
+        }
+        for (int i = 0; i < size; i++) {
+            transposedStart[i + 1] += transposedStart[i];
+        }
+
+        int[] transposedColumns = new int[nonZeros()];
+        double[] transposedValues = new double[nonZeros()];
+        int[] next = new int[size];
+        System.arraycopy(transposedStart, 0, next, 0, size);
+        for (int i = 0; i < size; i++) {
+            for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                int j = columns[k];
+                transposedColumns[next[j]] = i;
+                transposedValues[next[j]++] = values[k];
+            }
+        }
+        return new SparseMatrix(size, transposedStart, transposedColumns, transposedValues);
+    }
+
+    private static int index(WebPage page, int n) {
+        return index(page.getId(), n);
+    }
+
+    private static int index(int id, int n) {
+        if (id < 0 || id >= n) {
+            throw new IllegalArgumentException("Page id " + id + " is not in [0, " + n + ")");
+        }
+        return id;
+    }
+
+    /** The number of rows (and columns): the number of pages. */
+    public int size() {
+        return size;
+    }
+
+    /** The number of entries: the number of links, or twice that for an undirected matrix. */
+    public int nonZeros() {
+        return rowStart[size];
+    }
+
+    int[] rowStart() {
+        return rowStart;
+    }
+
+    int[] columns() {
+        return columns;
+    }
+
+    double[] values() {
+        return values;
+    }
+}
@@ -0,0 +1,86 @@
+package nu.helmers.courses.distributed;
+
+import junit.framework.TestCase;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.sql.DataFrame;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SQLContext;
+import scala.Tuple2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/** Converts pages to a DataFrame of edges and back, on a local Spark master. */
+public class DataFramePageRankTest extends TestCase {
+
+    private JavaSparkContext context;
+    private SQLContext sqlContext;
+
+    @Override
+    protected void setUp() {
+        Logger.getLogger("org").setLevel(Level.OFF);
+        Logger.getLogger("akka").setLevel(Level.OFF);
+
+        final SparkConf conf = new SparkConf()
+            .setAppName("nu.helmers.courses.distributed.DataFramePageRank")
+            .setMaster("local[2]")
+            .set("spark.ui.showConsoleProgress", "false");
+        context = new JavaSparkContext(conf);
+        context.setLogLevel("OFF");
+        sqlContext = new SQLContext(context);
+        sqlContext.setConf("spark.sql.shuffle.partitions", "4");
+    }
+
+    @Override
+    protected void tearDown() {
+        context.stop();
+    }
+
+    public void testEdgesRoundTrip() {
+        WebPage[] pages = new WebPage[4];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = new WebPage(i);
+        }
+        pages[0].addDestination(1);
+        pages[0].addDestination(2);
+        pages[1].addDestination(2);
+        pages[1].addDestination(2); // Two links to the same page are two edges.
+        pages[3].addDestination(0);
+        // Page 2 has no links, so it has no edges either.
+        List<Tuple2<Integer, WebPage>> pageList = new ArrayList<>();
+        for (WebPage page : pages) {
+            pageList.add(new Tuple2<>(page.getId(), page));
+        }
+
+        DataFrame edges = DataFramePageRank.toEdges(sqlContext, context.parallelizePairs(pageList, 2));
+        List<Row> rows = edges.collectAsList();
+        assertEquals(5, rows.size());
+        for (Row row : rows) {
+            assertEquals("out-degree of " + row.getInt(0), pages[row.getInt(0)].getDestinationCount(), row.getInt(2));
+        }
+
+        Map<Integer, WebPage> roundTrip = DataFramePageRank.toPages(edges).collectAsMap();
+        assertEquals(3, roundTrip.size());
+        assertFalse(roundTrip.containsKey(2));
+        for (Map.Entry<Integer, WebPage> page : roundTrip.entrySet()) {
+            assertEquals((long) page.getKey(), page.getValue().getId());
+            assertEquals("destinations of " + page.getKey(), sortedDestinations(pages[page.getKey()]),
+                    sortedDestinations(page.getValue()));
+        }
+    }
+
+    private static List<Integer> sortedDestinations(WebPage page) {
+        List<Integer> destinations = new ArrayList<>();
+        for (Iterator<Integer> iterator = page.destinations(); iterator.hasNext(); ) {
+            destinations.add(iterator.next());
+        }
+        Collections.sort(destinations);
+        return destinations;
+    }
+}
@@ -0,0 +1,181 @@
+package nu.helmers.courses.distributed;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+public class GraphAlgorithmsTest extends TestCase {
+
+    /** Creates a graph of n pages, where links[i] holds the ids of the pages that page i links to. */
+    private static WebPage[] graph(int n, int[]... links) {
+        WebPage[] pages = new WebPage[n];
+        for (int i = 0; i < n; i++) {
+            pages[i] = new WebPage(i);
+            if (i < links.length) {
+                for (int destination : links[i]) {
+                    pages[i].addDestination(destination);
+                }
+            }
+        }
+        return pages;
+    }
+
+    private static WebPage[] randomGraph(int n, int maxLinks, long seed) {
+        Random random = new Random(seed);
+        WebPage[] pages = new WebPage[n];
+        for (int i = 0; i < n; i++) {
+            pages[i] = new WebPage(i);
+            int links = 1 + random.nextInt(maxLinks);
+            for (int j = 0; j < links; j++) {
+                pages[i].addDestination(random.nextInt(n));
+            }
+        }
+        return pages;
+    }
+
+    /** The straightforward PageRank iteration, as in PageRankTest. */
+    private static double[] seqPageRank(WebPage[] pages, double[] ranks) {
+        double[] newRanks = new double[ranks.length];
+        for (int j = 0; j < pages.length; j++) {
+            Iterator<Integer> destinations = pages[j].destinations();
+            while (destinations.hasNext()) {
+                newRanks[destinations.next()] += ranks[j] / (double) pages[j].getDestinationCount();
+            }
+        }
+        for (int j = 0; j < newRanks.length; j++) {
+            newRanks[j] = 0.15 + 0.85 * newRanks[j];
+        }
+        return newRanks;
+    }
+
+    public void testPageRankMatchesSequential() {
+        final int nNodes = 50000;
+        WebPage[] pages = randomGraph(nNodes, 40, 42);
+        double[] ranks = new double[nNodes];
+        Random random = new Random(7);
+        for (int i = 0; i < nNodes; i++) {
+            ranks[i] = 100.0 * random.nextDouble();
+        }
+
+        double[] expected = ranks;
+        for (int i = 0; i < 5; i++) {
+            expected = seqPageRank(pages, expected);
+        }
+        double[] actual = GraphAlgorithms.pageRank(pages, ranks, 5);
+
+        for (int i = 0; i < nNodes; i++) {
+            assertTrue("rank of page " + i, Math.abs(expected[i] - actual[i]) < 1E-9);
+        }
+    }
+
+    public void testParallelKernelMatchesGenericOperations() {
+        WebPage[] pages = randomGraph(20000, 20, 1);
+        SparseMatrix a = SparseMatrix.incoming(pages, SparseMatrix.EdgeWeight.INVERSE_OUT_DEGREE);
+        assertTrue(a.nonZeros() > 1 << 16); // big enough to be split over several tasks
+
+        Random random = new Random(3);
+        double[] x = new double[a.size()];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = random.nextInt(2);
+        }
+        for (Semiring semiring : Semiring.values()) {
+            double[] y = new double[a.size()];
+            SpMV.multiply(a, x, y, semiring);
+
+            double[] expected = new double[a.size()];
+            Arrays.fill(expected, semiring.zero());
+            for (WebPage page : pages) {
+                double product = semiring.multiply(1.0 / page.getDestinationCount(), x[page.getId()]);
+                for (Iterator<Integer> destinations = page.destinations(); destinations.hasNext(); ) {
+                    int destination = destinations.next();
+                    expected[destination] = semiring.add(expected[destination], product);
+                }
+            }
+            for (int i = 0; i < y.length; i++) {
+                assertEquals(semiring + " row " + i, expected[i], y[i], 1E-12);
+            }
+        }
+    }
+
+    public void testBfsLevels() {
+        // 0 -> 1 -> 2, 0 -> 3 -> 1, 2 -> 0, and page 4 can't be reached.
+        WebPage[] pages = graph(5, new int[]{1, 3}, new int[]{2}, new int[]{0}, new int[]{1}, new int[]{0});
+
+        int[] levels = GraphAlgorithms.bfsLevels(pages, 0);
+
+        assertTrue(Arrays.toString(levels), Arrays.equals(new int[]{0, 1, 2, 1, -1}, levels));
+    }
+
+    public void testShortestPaths() {
+        WebPage[] pages = graph(5, new int[]{1, 3}, new int[]{2}, new int[]{0}, new int[]{1}, new int[]{0});
+        SparseMatrix lengths = SparseMatrix.incoming(pages, SparseMatrix.EdgeWeight.ONE);
+
+        double[] distances = GraphAlgorithms.shortestPaths(lengths, 3);
+
+        assertTrue(Arrays.toString(distances),
+                Arrays.equals(new double[]{3, 1, 2, 0, Double.POSITIVE_INFINITY}, distances));
+    }
+
+    public void testShortestPathsMatchBfsLevels() {
+        WebPage[] pages = randomGraph(2000, 3, 11);
+        SparseMatrix lengths = SparseMatrix.incoming(pages, SparseMatrix.EdgeWeight.ONE);
+
+        int[] levels = GraphAlgorithms.bfsLevels(pages, 0);
+        double[] distances = GraphAlgorithms.shortestPaths(lengths, 0);
+
+        for (int i = 0; i < levels.length; i++) {
+            assertEquals(levels[i] < 0 ? Double.POSITIVE_INFINITY : levels[i], distances[i], 0);
+        }
+    }
+
+    public void testConnectedComponents() {
+        // 0 -> 1 <- 2 form one component (ignoring directions), 4 -> 3 another, and 5 is on its own.
+        WebPage[] pages = graph(6, new int[]{1}, new int[0], new int[]{1}, new int[0], new int[]{3});
+
+        int[] components = GraphAlgorithms.connectedComponents(pages);
+
+        assertTrue(Arrays.toString(components), Arrays.equals(new int[]{0, 0, 0, 3, 3, 5}, components));
+    }
+
+    public void testPageIdsMustBeIndices() {
+        WebPage[] pages = {new WebPage(0), new WebPage(2)};
+        try {
+            SparseMatrix.incoming(pages, SparseMatrix.EdgeWeight.ONE);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testDuplicatePageIds() {
+        WebPage[] pages = {new WebPage(0), new WebPage(0)};
+        pages[0].addDestination(1);
+        try {
+            SparseMatrix.incoming(pages, SparseMatrix.EdgeWeight.ONE);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Duplicate page id 0", e.getMessage());
+        }
+    }
+
+    public void testSourceMustBeAPage() {
+        WebPage[] pages = graph(3, new int[]{1}, new int[]{2});
+        SparseMatrix lengths = SparseMatrix.incoming(pages, SparseMatrix.EdgeWeight.ONE);
+        for (int source : new int[]{-1, 3}) {
+            try {
+                GraphAlgorithms.bfsLevels(pages, source);
+                fail("Expected an IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                assertEquals("Source " + source + " is not in [0, 3)", e.getMessage());
+            }
+            try {
+                GraphAlgorithms.shortestPaths(lengths, source);
+                fail("Expected an IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                assertEquals("Source " + source + " is not in [0, 3)", e.getMessage());
+            }
+        }
+    }
+}
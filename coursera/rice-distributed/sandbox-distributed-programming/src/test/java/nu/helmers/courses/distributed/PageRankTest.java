@@ -6,6 +6,8 @@ import org.apache.log4j.Logger;
 import org.apache.spark.SparkConf;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.sql.DataFrame;
+import org.apache.spark.sql.SQLContext;
 import scala.Tuple2;
 
 import java.util.*;
@@ -134,6 +136,24 @@ public class PageRankTest extends TestCase {
         return newRanks;
     }
 
+    private static void assertRanks(final WebPage[] nodesArr,
+            final double[] ranksArr,
+            final List<Tuple2<Integer, Double>> parResult) {
+        Map<Integer, Double> keyed = new HashMap<Integer, Double>();
+        for (Tuple2<Integer, Double> site : parResult) {
+            assert (!keyed.containsKey(site._1()));
+            keyed.put(site._1(), site._2());
+        }
+
+        assertEquals(nodesArr.length, parResult.size());
+        for (int i = 0; i < parResult.size(); i++) {
+            assertTrue(keyed.containsKey(nodesArr[i].getId()));
+            final double delta = Math.abs(ranksArr[i] -
+                    keyed.get(nodesArr[i].getId()));
+            assertTrue(delta < 1E-9);
+        }
+    }
+
     private static void testDriver(final int nNodes, final int minEdgesPerNode,
             final int maxEdgesPerNode, final int niterations,
             final EdgeDistribution edgeConfig) {
@@ -183,19 +203,7 @@ public class PageRankTest extends TestCase {
         final double speedup = (double)singleElapsed / (double)parElapsed;
         context.stop();
 
-        Map<Integer, Double> keyed = new HashMap<Integer, Double>();
-        for (Tuple2<Integer, Double> site : parResult) {
-            assert (!keyed.containsKey(site._1()));
-            keyed.put(site._1(), site._2());
-        }
-
-        assertEquals(nodesArr.length, parResult.size());
-        for (int i = 0; i < parResult.size(); i++) {
-            assertTrue(keyed.containsKey(nodesArr[i].getId()));
-            final double delta = Math.abs(ranksArr[i] -
-                    keyed.get(nodesArr[i].getId()));
-            assertTrue(delta < 1E-9);
-        }
+        assertRanks(nodesArr, ranksArr, parResult);
 
         System.err.println();
         System.err.println("Single-core execution ran in " + singleElapsed +
@@ -211,6 +219,91 @@ public class PageRankTest extends TestCase {
         assertTrue(msg, speedup >= expectedSpeedup);
     }
 
+    private static void dataFrameTestDriver(final int nNodes,
+            final int minEdgesPerNode, final int maxEdgesPerNode,
+            final int niterations, final EdgeDistribution edgeConfig) {
+        System.err.println("Comparing the RDD and DataFrame PageRank for " +
+                niterations + " iterations on a website graph of " + nNodes +
+                " websites");
+        System.err.println();
+
+        final int repeats = 2;
+        WebPage[] nodesArr = generateGraphArr(nNodes, minEdgesPerNode,
+                maxEdgesPerNode, edgeConfig);
+        double[] ranksArr = generateRankArr(nNodes);
+        for (int i = 0; i < niterations; i++) {
+            ranksArr = seqPageRank(nodesArr, ranksArr);
+        }
+
+        JavaSparkContext context = getSparkContext(getNCores());
+        SQLContext sqlContext = new SQLContext(context);
+        // The default of 200 shuffle partitions is meant for a cluster.
+        sqlContext.setConf("spark.sql.shuffle.partitions",
+                String.valueOf(2 * getNCores()));
+
+        // Build (and cache) the graph and the initial ranks once, in both
+        // forms, so that the timed runs measure the iterations only.
+        JavaPairRDD<Integer, WebPage> nodes = generateGraphRDD(nNodes,
+                minEdgesPerNode, maxEdgesPerNode, edgeConfig, context).cache();
+        JavaPairRDD<Integer, Double> ranks = generateRankRDD(nNodes,
+                context).cache();
+        DataFrame edges = DataFramePageRank.toEdges(sqlContext, nodes).cache();
+        DataFrame ranksFrame = DataFramePageRank.toRanks(sqlContext, ranks)
+            .cache();
+        nodes.count();
+        ranks.count();
+        edges.count();
+        ranksFrame.count();
+
+        // One untimed run of both paths first, so that neither pays for
+        // class loading, JIT compilation and Spark's own warm-up.
+        rddPageRank(nodes, ranks, niterations);
+        dataFramePageRank(edges, ranksFrame, niterations);
+
+        List<Tuple2<Integer, Double>> rddResult = null;
+        final long rddStart = System.currentTimeMillis();
+        for (int r = 0; r < repeats; r++) {
+            rddResult = rddPageRank(nodes, ranks, niterations);
+        }
+        final long rddElapsed = System.currentTimeMillis() - rddStart;
+
+        List<Tuple2<Integer, Double>> dataFrameResult = null;
+        final long dataFrameStart = System.currentTimeMillis();
+        for (int r = 0; r < repeats; r++) {
+            dataFrameResult = dataFramePageRank(edges, ranksFrame,
+                    niterations);
+        }
+        final long dataFrameElapsed = System.currentTimeMillis() -
+            dataFrameStart;
+        context.stop();
+
+        assertRanks(nodesArr, ranksArr, rddResult);
+        assertRanks(nodesArr, ranksArr, dataFrameResult);
+
+        System.err.println("RDD execution ran in " + rddElapsed + " ms");
+        System.err.println("DataFrame execution ran in " + dataFrameElapsed +
+                " ms, yielding a speedup of " +
+                ((double)rddElapsed / (double)dataFrameElapsed) + "x");
+        System.err.println();
+    }
+
+    private static List<Tuple2<Integer, Double>> rddPageRank(
+            final JavaPairRDD<Integer, WebPage> nodes,
+            JavaPairRDD<Integer, Double> ranks, final int niterations) {
+        for (int i = 0; i < niterations; i++) {
+            ranks = PageRank.calculate(nodes, ranks);
+        }
+        return ranks.collect();
+    }
+
+    private static List<Tuple2<Integer, Double>> dataFramePageRank(
+            final DataFrame edges, DataFrame ranks, final int niterations) {
+        for (int i = 0; i < niterations; i++) {
+            ranks = DataFramePageRank.calculate(edges, ranks);
+        }
+        return DataFramePageRank.toRankRDD(ranks).collect();
+    }
+
     public void testUniformTwentyThousand() {
         final int nNodes = 20000;
         final int minEdgesPerNode = 20;
@@ -276,4 +369,37 @@ public class PageRankTest extends TestCase {
         testDriver(nNodes, minEdgesPerNode, maxEdgesPerNode, niterations,
                 edgeConfig);
     }
+
+    public void testDataFrameUniformFiftyThousand() {
+        final int nNodes = 50000;
+        final int minEdgesPerNode = 20;
+        final int maxEdgesPerNode = 40;
+        final int niterations = 5;
+        final EdgeDistribution edgeConfig = EdgeDistribution.UNIFORM;
+
+        dataFrameTestDriver(nNodes, minEdgesPerNode, maxEdgesPerNode,
+                niterations, edgeConfig);
+    }
+
+    public void testDataFrameIncreasingFiftyThousand() {
+        final int nNodes = 50000;
+        final int minEdgesPerNode = 20;
+        final int maxEdgesPerNode = 40;
+        final int niterations = 5;
+        final EdgeDistribution edgeConfig = EdgeDistribution.INCREASING;
+
+        dataFrameTestDriver(nNodes, minEdgesPerNode, maxEdgesPerNode,
+                niterations, edgeConfig);
+    }
+
+    public void testDataFrameRandomFiftyThousand() {
+        final int nNodes = 50000;
+        final int minEdgesPerNode = 20;
+        final int maxEdgesPerNode = 40;
+        final int niterations = 5;
+        final EdgeDistribution edgeConfig = EdgeDistribution.RANDOM;
+
+        dataFrameTestDriver(nNodes, minEdgesPerNode, maxEdgesPerNode,
+                niterations, edgeConfig);
+    }
 }
@@ -0,0 +1,79 @@
+package nu.helmers.courses.distributed;
+
+import junit.framework.TestCase;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import scala.Tuple2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/** Runs {@link PersonalizedPageRank} on a local Spark master, and compares it with the local calculation. */
+public class PersonalizedPageRankSparkTest extends TestCase {
+
+    private JavaSparkContext context;
+
+    @Override
+    protected void setUp() {
+        Logger.getLogger("org").setLevel(Level.OFF);
+        Logger.getLogger("akka").setLevel(Level.OFF);
+
+        final SparkConf conf = new SparkConf()
+            .setAppName("nu.helmers.courses.distributed.PersonalizedPageRank")
+            .setMaster("local[" + Runtime.getRuntime().availableProcessors() + "]")
+            .set("spark.ui.showConsoleProgress", "false");
+        context = new JavaSparkContext(conf);
+        context.setLogLevel("OFF");
+    }
+
+    @Override
+    protected void tearDown() {
+        context.stop();
+    }
+
+    public void testSameScoresAsLocal() {
+        WebPage[] pages = PersonalizedPageRankTest.randomGraph(2000, 10, 5);
+        int[] seeds = new int[300];
+        List<Integer> seedList = new ArrayList<>();
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = (i * 13) % pages.length;
+            seedList.add(seeds[i]);
+        }
+        List<Tuple2<Integer, WebPage>> pageList = new ArrayList<>();
+        for (WebPage page : pages) {
+            pageList.add(new Tuple2<>(page.getId(), page));
+        }
+        JavaPairRDD<Integer, WebPage> pageRDD = context.parallelizePairs(pageList, 4);
+
+        PersonalizedPageRank personalizedPageRank = new PersonalizedPageRank(100, 10);
+        Map<Integer, List<PersonalizedPageRank.Score>> local = personalizedPageRank.calculate(pages, seeds);
+        List<Tuple2<Integer, List<PersonalizedPageRank.Score>>> spark =
+                personalizedPageRank.calculate(context, pageRDD, seedList).collect();
+
+        // Every seed has a random generator of its own, so the partitioning doesn't matter: same walks, same scores.
+        assertEquals(seeds.length, spark.size());
+        for (Tuple2<Integer, List<PersonalizedPageRank.Score>> scores : spark) {
+            assertEquals("seed " + scores._1(), local.get(scores._1()).toString(), scores._2().toString());
+        }
+    }
+
+    public void testInvalidSeed() {
+        WebPage[] pages = PersonalizedPageRankTest.randomGraph(10, 2, 6);
+        List<Tuple2<Integer, WebPage>> pageList = new ArrayList<>();
+        for (WebPage page : pages) {
+            pageList.add(new Tuple2<>(page.getId(), page));
+        }
+        try {
+            new PersonalizedPageRank(10, 10).calculate(context, context.parallelizePairs(pageList),
+                    Arrays.asList(3, -1));
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Seed -1 is not in [0, 10)", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package nu.helmers.courses.distributed;
+
+import junit.framework.TestCase;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class PersonalizedPageRankTest extends TestCase {
+
+    static WebPage[] randomGraph(int n, int maxLinks, long seed) {
+        Random random = new Random(seed);
+        WebPage[] pages = new WebPage[n];
+        for (int i = 0; i < n; i++) {
+            pages[i] = new WebPage(i);
+            // Some pages without links, to check that walks restart there.
+            int links = random.nextInt(maxLinks + 1);
+            for (int j = 0; j < links; j++) {
+                pages[i].addDestination(random.nextInt(n));
+            }
+        }
+        return pages;
+    }
+
+    /** Personalized PageRank by power iteration, where pages without links pass their rank to the seed. */
+    private static double[] exactPersonalizedPageRank(WebPage[] pages, int seed) {
+        double[] ranks = new double[pages.length];
+        ranks[seed] = 1;
+        for (int iteration = 0; iteration < 200; iteration++) {
+            double[] newRanks = new double[pages.length];
+            newRanks[seed] = PersonalizedPageRank.RESTART_PROBABILITY;
+            for (WebPage page : pages) {
+                double rank = (1 - PersonalizedPageRank.RESTART_PROBABILITY) * ranks[page.getId()];
+                if (page.getDestinationCount() == 0) {
+                    newRanks[seed] += rank;
+                }
+                for (Iterator<Integer> destinations = page.destinations(); destinations.hasNext(); ) {
+                    newRanks[destinations.next()] += rank / page.getDestinationCount();
+                }
+            }
+            ranks = newRanks;
+        }
+        return ranks;
+    }
+
+    public void testConvergesToExactScores() {
+        WebPage[] pages = randomGraph(300, 5, 1);
+        int seed = 17;
+        double[] exact = exactPersonalizedPageRank(pages, seed);
+
+        List<PersonalizedPageRank.Score> scores =
+                new PersonalizedPageRank(200000, 10).calculate(pages, new int[]{seed}).get(seed);
+
+        assertEquals(10, scores.size());
+        assertEquals(seed, scores.get(0).getPage());
+        for (PersonalizedPageRank.Score score : scores) {
+            assertEquals("page " + score.getPage(), exact[score.getPage()], score.getScore(), 0.005);
+        }
+    }
+
+    public void testTopScoresInDescendingOrder() {
+        WebPage[] pages = randomGraph(10000, 20, 2);
+        int[] seeds = new int[2000];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = 5 * i;
+        }
+
+        Map<Integer, List<PersonalizedPageRank.Score>> scores =
+                new PersonalizedPageRank(100, 20).calculate(pages, seeds);
+
+        assertEquals(seeds.length, scores.size());
+        for (int seed : seeds) {
+            List<PersonalizedPageRank.Score> seedScores = scores.get(seed);
+            assertTrue(seedScores.size() <= 20);
+            // Every walk starts with a visit to the seed, which makes it the top page (with these seeds, at least).
+            assertEquals(seed, seedScores.get(0).getPage());
+            for (int i = 1; i < seedScores.size(); i++) {
+                assertTrue(seedScores.get(i - 1).getScore() >= seedScores.get(i).getScore());
+            }
+        }
+    }
+
+    public void testReproducible() {
+        WebPage[] pages = randomGraph(1000, 10, 3);
+        int[] seeds = new int[500];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = (i * 7) % pages.length;
+        }
+        int[] reversed = new int[seeds.length];
+        for (int i = 0; i < seeds.length; i++) {
+            reversed[i] = seeds[seeds.length - 1 - i];
+        }
+
+        // Different batches, same seeds: same estimates.
+        Map<Integer, List<PersonalizedPageRank.Score>> first = new PersonalizedPageRank(50, 5).calculate(pages, seeds);
+        Map<Integer, List<PersonalizedPageRank.Score>> second =
+                new PersonalizedPageRank(50, 5).calculate(pages, reversed);
+
+        for (int seed : seeds) {
+            assertEquals(first.get(seed).toString(), second.get(seed).toString());
+        }
+    }
+
+    public void testInvalidArguments() {
+        try {
+            new PersonalizedPageRank(0, 10);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new PersonalizedPageRank(PersonalizedPageRank.MAX_WALKS_PER_SEED + 1, 10);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new PersonalizedPageRank(10, 10).calculate(randomGraph(10, 2, 4), new int[]{3, 10});
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Seed 10 is not in [0, 10)", e.getMessage());
+        }
+    }
+}
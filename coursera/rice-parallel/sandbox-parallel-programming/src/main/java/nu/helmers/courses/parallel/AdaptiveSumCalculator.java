@@ -0,0 +1,298 @@
+package nu.helmers.courses.parallel;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.IntStream;
+
+/**
+ * Calculates the sum of all elements in an array, using whichever backend turned out to be fastest for arrays of
+ * (roughly) that size on this machine.
+ * <p/>
+ * This module shows several ways to run the same reduction: sequentially, with a RecursiveTask on a Fork/Join pool,
+ * with a parallel stream and with PCDP's finish/async (see {@link ParallelRuntime}). Which one wins depends on the
+ * array size and the number of cores. Call {@link #calibrate()} (at startup, or whenever you like) to time each
+ * backend, and a few granularities per backend, on sample arrays; the fastest choice is cached per size bucket (a
+ * power of two) and every call to {@link #sum(long[])} is routed to it. Until calibrated, a simple size-based
+ * heuristic is used.
+ * <p/>
+ * Use {@link #sum(long[], CancellationToken)} for reductions that should be abandoned after a deadline, or when the
+ * caller loses interest.
+ */
+public class AdaptiveSumCalculator {
+
+    public enum Backend {
+        SEQUENTIAL,
+        /** Granularity = the number of elements below which a RecursiveTaskCalculator doesn't split any further. */
+        FORK_JOIN,
+        PARALLEL_STREAM,
+        /** Granularity = the number of asyncs (chunks) to spawn. */
+        PCDP
+    }
+
+    /** A backend and the granularity to use it with. */
+    public static final class Choice {
+        private final Backend backend;
+        private final int granularity;
+
+        Choice(Backend backend, int granularity) {
+            this.backend = backend;
+            this.granularity = granularity;
+        }
+
+        public Backend getBackend() {
+            return backend;
+        }
+
+        public int getGranularity() {
+            return granularity;
+        }
+
+        @Override
+        public String toString() {
+            return backend + (granularity > 0 ? "(" + granularity + ")" : "");
+        }
+    }
+
+    /** Size buckets: bucket b holds the array lengths in [2^(b-1), 2^b). */
+    private static final int BUCKETS = 32;
+    private static final int MIN_CALIBRATION_EXPONENT = 10;
+    private static final int DEFAULT_MAX_CALIBRATION_LENGTH = 1 << 22;
+    private static final int RUNS = 5;
+    /** The number of elements summed between two checks of the cancellation token. */
+    private static final int CHECK_INTERVAL = 1 << 16;
+
+    private static final Choice SMALL_DEFAULT = new Choice(Backend.SEQUENTIAL, 0);
+    private static final Choice LARGE_DEFAULT = new Choice(Backend.FORK_JOIN, 1 << 15);
+
+    private volatile Choice[] choices;
+
+    /** Creates an uncalibrated calculator; see {@link #calibrated()} to create one that is ready to go. */
+    public AdaptiveSumCalculator() {
+        Choice[] defaults = new Choice[BUCKETS];
+        for (int b = 0; b < BUCKETS; b++) {
+            defaults[b] = b <= 16 ? SMALL_DEFAULT : LARGE_DEFAULT;
+        }
+        this.choices = defaults;
+    }
+
+    /** Creates a calculator and calibrates it right away. */
+    public static AdaptiveSumCalculator calibrated() {
+        return new AdaptiveSumCalculator().calibrate();
+    }
+
+    public long sum(long[] array) {
+        Choice choice = choiceFor(array.length);
+        return sum(array, choice.backend, choice.granularity);
+    }
+
+    /**
+     * Sums the array unless the token trips first. If the token has a deadline, this method returns when the deadline
+     * passes, even if the calculation hasn't noticed yet: it stops at the next check of the token.
+     */
+    public ReductionResult sum(long[] array, CancellationToken token) {
+        Choice choice = choiceFor(array.length);
+        return sum(array, choice.backend, choice.granularity, token);
+    }
+
+    /** Returns the backend and granularity that {@link #sum(long[])} uses for arrays of the given length. */
+    public Choice choiceFor(int length) {
+        return choices[bucketOf(length)];
+    }
+
+    public AdaptiveSumCalculator calibrate() {
+        return calibrate(DEFAULT_MAX_CALIBRATION_LENGTH);
+    }
+
+    /**
+     * Times every backend/granularity combination on sample arrays of 2^10, 2^12, ... elements (up to
+     * <code>maxLength</code>), and caches the fastest combination per size bucket. Buckets in between two sample sizes
+     * use the choice for the smaller one, buckets beyond the largest sample size use the choice for the largest one and
+     * arrays smaller than the smallest sample are summed sequentially.
+     */
+    public AdaptiveSumCalculator calibrate(int maxLength) {
+        int parallelism = ForkJoinPoolRegistry.defaultPool().getParallelism();
+        Choice[] candidates = {
+                new Choice(Backend.SEQUENTIAL, 0),
+                new Choice(Backend.FORK_JOIN, 1 << 12),
+                new Choice(Backend.FORK_JOIN, 1 << 15),
+                new Choice(Backend.FORK_JOIN, 1 << 18),
+                new Choice(Backend.PARALLEL_STREAM, 0),
+                new Choice(Backend.PCDP, parallelism),
+                new Choice(Backend.PCDP, 4 * parallelism),
+        };
+
+        Choice[] calibrated = new Choice[BUCKETS];
+        for (int exponent = MIN_CALIBRATION_EXPONENT; exponent < BUCKETS - 1 && (1 << exponent) <= maxLength;
+             exponent += 2) {
+            long[] sample = new long[1 << exponent];
+            Arrays.fill(sample, 1);
+            calibrated[bucketOf(sample.length)] = fastest(sample, candidates);
+        }
+
+        // Fill the gaps: a bucket without a sample of its own inherits the choice of the nearest smaller sample.
+        Choice previous = SMALL_DEFAULT;
+        for (int b = 0; b < BUCKETS; b++) {
+            if (calibrated[b] == null) {
+                calibrated[b] = previous;
+            }
+            previous = calibrated[b];
+        }
+
+        this.choices = calibrated;
+        return this;
+    }
+
+    private static Choice fastest(long[] sample, Choice[] candidates) {
+        Choice best = null;
+        long bestTime = Long.MAX_VALUE;
+        for (Choice candidate : candidates) {
+            long time = Long.MAX_VALUE;
+            // The first runs also warm up the JIT; we keep the best run.
+            for (int run = 0; run < RUNS; run++) {
+                long startTime = System.nanoTime();
+                sum(sample, candidate.backend, candidate.granularity);
+                time = Math.min(time, System.nanoTime() - startTime);
+            }
+            if (time < bestTime) {
+                bestTime = time;
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private static int bucketOf(int length) {
+        return 32 - Integer.numberOfLeadingZeros(length);
+    }
+
+    static long sum(long[] array, Backend backend, int granularity) {
+        return reduce(array, backend, granularity, null);
+    }
+
+    static ReductionResult sum(long[] array, Backend backend, int granularity, CancellationToken token) {
+        if (token == null) {
+            return ReductionResult.completed(reduce(array, backend, granularity, null));
+        }
+        try {
+            return ReductionResult.completed(reduce(array, backend, granularity, token));
+        } catch (RuntimeException e) {
+            // Any other exception is a real failure, even if the token happens to have tripped in the meantime.
+            if (isCancellation(e) && token.isCancelled()) {
+                return ReductionResult.aborted(token.getReason());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Whether the exception is (or is caused by) a CancellationException: backends report cancellation in different
+     * ways, and a pool may rethrow a task's exception wrapped in a new one.
+     */
+    private static boolean isCancellation(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof CancellationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long reduce(long[] array, Backend backend, int granularity, CancellationToken token) {
+        if (token != null) {
+            switch (backend) {
+                case SEQUENTIAL:
+                    return sequentialSum(array, 0, array.length, token);
+                case FORK_JOIN:
+                    return forkJoinSum(array, granularity, token);
+                case PARALLEL_STREAM:
+                    int chunks = (array.length + CHECK_INTERVAL - 1) / CHECK_INTERVAL;
+                    return IntStream.range(0, chunks).parallel()
+                            .mapToLong(c -> sequentialSum(array, c * CHECK_INTERVAL,
+                                    Math.min(array.length, (c + 1) * CHECK_INTERVAL), token))
+                            .sum();
+                case PCDP:
+                    return pcdpSum(array, granularity, token);
+                default:
+                    throw new IllegalArgumentException("Unknown backend " + backend);
+            }
+        }
+
+        switch (backend) {
+            case SEQUENTIAL:
+                return sequentialSum(array, 0, array.length);
+            case FORK_JOIN:
+                return ForkJoinPoolRegistry.defaultPool().invoke(new RecursiveTaskCalculator(array, granularity));
+            case PARALLEL_STREAM:
+                return Arrays.stream(array).parallel().sum();
+            case PCDP:
+                return pcdpSum(array, granularity, null);
+            default:
+                throw new IllegalArgumentException("Unknown backend " + backend);
+        }
+    }
+
+    private static long sequentialSum(long[] array, int fromIx, int toIx) {
+        long sum = 0;
+        for (int i = fromIx; i < toIx; i++) {
+            sum += array[i];
+        }
+        return sum;
+    }
+
+    /** Sums the array, checking the token every {@value #CHECK_INTERVAL} elements. */
+    private static long sequentialSum(long[] array, int fromIx, int toIx, CancellationToken token) {
+        long sum = 0;
+        for (int from = fromIx; from < toIx; from += CHECK_INTERVAL) {
+            token.throwIfCancelled();
+            sum += sequentialSum(array, from, Math.min(toIx, from + CHECK_INTERVAL));
+        }
+        return sum;
+    }
+
+    /**
+     * Submits the calculation to the pool and waits for it, but no longer than the deadline of the token. When the
+     * deadline passes, the tasks that are still running see the tripped token and abort.
+     */
+    private static long forkJoinSum(long[] array, int threshold, CancellationToken token) {
+        ForkJoinTask<Long> task = ForkJoinPoolRegistry.defaultPool()
+                .submit(new RecursiveTaskCalculator(array, threshold, null, token));
+        try {
+            return token.hasDeadline() ? task.get(Math.max(0, token.remainingNanos()), TimeUnit.NANOSECONDS)
+                    : task.get();
+        } catch (TimeoutException e) {
+            task.cancel(true);
+            throw new CancellationException(CancellationToken.Reason.TIMED_OUT.toString());
+        } catch (InterruptedException e) {
+            token.cancel();
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                    : new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static long pcdpSum(long[] array, int chunks, CancellationToken token) {
+        final long[] sums = new long[chunks];
+        final int chunkSize = (array.length + chunks - 1) / chunks;
+
+        ParallelRuntime.finish(() -> {
+            for (int c = 0; c < chunks; c++) {
+                final int chunk = c;
+                ParallelRuntime.async(() -> {
+                    int fromIx = Math.min(array.length, chunk * chunkSize);
+                    int toIx = Math.min(array.length, fromIx + chunkSize);
+                    sums[chunk] = token == null ? sequentialSum(array, fromIx, toIx)
+                            : sequentialSum(array, fromIx, toIx, token);
+                });
+            }
+        });
+
+        return sequentialSum(sums, 0, chunks);
+    }
+}
@@ -0,0 +1,77 @@
+package nu.helmers.courses.parallel;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells a running calculation to stop, either because someone called {@link #cancel()} or because its deadline has
+ * passed.
+ * <p/>
+ * Calculations check the token at the start of every (sub)task and every so many elements; checking costs a volatile
+ * read, plus a {@link System#nanoTime()} call if the token has a deadline. Once the token has tripped, every check
+ * throws a {@link CancellationException}, so the whole task tree unwinds quickly and the pool threads are free again.
+ */
+public final class CancellationToken {
+
+    public enum Reason {
+        CANCELLED,
+        TIMED_OUT
+    }
+
+    private final boolean hasDeadline;
+    private final long deadlineNanos;
+    private volatile Reason reason;
+
+    /** Creates a token without a deadline, that only trips when {@link #cancel()} is called. */
+    public CancellationToken() {
+        this.hasDeadline = false;
+        this.deadlineNanos = 0;
+    }
+
+    private CancellationToken(long deadlineNanos) {
+        this.hasDeadline = true;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /** Creates a token that trips after the given timeout (or when {@link #cancel()} is called, if that's earlier). */
+    public static CancellationToken withTimeout(long timeout, TimeUnit unit) {
+        return new CancellationToken(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    public void cancel() {
+        if (reason == null) {
+            reason = Reason.CANCELLED;
+        }
+    }
+
+    public boolean isCancelled() {
+        if (reason != null) {
+            return true;
+        }
+        if (hasDeadline && System.nanoTime() - deadlineNanos >= 0) {
+            reason = Reason.TIMED_OUT;
+            return true;
+        }
+        return false;
+    }
+
+    /** Returns why the token tripped, or null if it hasn't. */
+    public Reason getReason() {
+        return isCancelled() ? reason : null;
+    }
+
+    public void throwIfCancelled() {
+        if (isCancelled()) {
+            throw new CancellationException(reason.toString());
+        }
+    }
+
+    boolean hasDeadline() {
+        return hasDeadline;
+    }
+
+    /** Returns the time left until the deadline (which may be negative). Only meaningful if there is a deadline. */
+    long remainingNanos() {
+        return deadlineNanos - System.nanoTime();
+    }
+}
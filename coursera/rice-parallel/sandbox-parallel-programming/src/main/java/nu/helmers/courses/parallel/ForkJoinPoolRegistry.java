@@ -0,0 +1,187 @@
+package nu.helmers.courses.parallel;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A registry of named, reusable Fork/Join pools.
+ * <p/>
+ * Creating a <code>new ForkJoinPool(n)</code> for every calculation costs a thread start per worker, and if the pool
+ * is never shut down its threads leak. Tuning the common pool with the system property
+ * <code>java.util.concurrent.ForkJoinPool.common.parallelism</code> doesn't work either once the common pool has been
+ * started. Instead, ask this registry for a pool by name and parallelism: the first call creates it, later calls reuse
+ * it. Worker threads are named after their pool, and all pools are shut down by a JVM shutdown hook.
+ */
+public final class ForkJoinPoolRegistry {
+
+    /** The name of the pool returned by {@link #defaultPool()}. */
+    public static final String DEFAULT = "default";
+
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 1000;
+
+    private static final ConcurrentMap<String, ManagedPool> POOLS = new ConcurrentHashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(ForkJoinPoolRegistry::shutdownAll, "fork-join-pool-registry"));
+    }
+
+    private ForkJoinPoolRegistry() {
+    }
+
+    /** Returns the pool named {@value #DEFAULT}, with one worker per available processor. */
+    public static ForkJoinPool defaultPool() {
+        return get(DEFAULT, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns the pool with the given name, creating it with the given parallelism if it doesn't exist yet.
+     *
+     * @throws IllegalArgumentException if the pool already exists with a different parallelism
+     */
+    public static ForkJoinPool get(String name, int parallelism) {
+        ManagedPool managed = POOLS.computeIfAbsent(name, n -> new ManagedPool(n, parallelism));
+        if (managed.pool.getParallelism() != parallelism) {
+            throw new IllegalArgumentException("Pool '" + name + "' already exists with parallelism "
+                    + managed.pool.getParallelism() + ", requested " + parallelism);
+        }
+        return managed.pool;
+    }
+
+    /** Returns a snapshot of the statistics of the given pool, or null if there's no pool with that name. */
+    public static Stats stats(String name) {
+        ManagedPool managed = POOLS.get(name);
+        return managed == null ? null : managed.stats();
+    }
+
+    /** Returns a snapshot of the statistics of all pools, sorted by pool name. */
+    public static Map<String, Stats> stats() {
+        Map<String, Stats> stats = new TreeMap<>();
+        POOLS.forEach((name, managed) -> stats.put(name, managed.stats()));
+        return stats;
+    }
+
+    /**
+     * Removes the given pool from the registry, shuts it down and waits (briefly) for running tasks to complete. A
+     * later call to {@link #get} with the same name creates a new pool.
+     */
+    public static void shutdown(String name) {
+        ManagedPool managed = POOLS.remove(name);
+        if (managed != null) {
+            managed.shutdown();
+        }
+    }
+
+    public static void shutdownAll() {
+        POOLS.keySet().forEach(ForkJoinPoolRegistry::shutdown);
+    }
+
+    private static final class ManagedPool implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        private final String name;
+        private final ForkJoinPool pool;
+        private final AtomicInteger threadsCreated = new AtomicInteger();
+
+        ManagedPool(String name, int parallelism) {
+            this.name = name;
+            this.pool = new ForkJoinPool(parallelism, this, null, false);
+        }
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool forkJoinPool) {
+            ForkJoinWorkerThread thread = new ForkJoinWorkerThread(forkJoinPool) {
+            };
+            thread.setName(name + "-worker-" + threadsCreated.incrementAndGet());
+            return thread;
+        }
+
+        Stats stats() {
+            return new Stats(name, pool.getParallelism(), pool.getPoolSize(), pool.getActiveThreadCount(),
+                    pool.getRunningThreadCount(), pool.getQueuedTaskCount(), pool.getQueuedSubmissionCount(),
+                    pool.getStealCount(), threadsCreated.get());
+        }
+
+        void shutdown() {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** A snapshot of the statistics of a pool. */
+    public static final class Stats {
+        private final String name;
+        private final int parallelism;
+        private final int poolSize;
+        private final int activeThreads;
+        private final int runningThreads;
+        private final long queuedTasks;
+        private final int queuedSubmissions;
+        private final long steals;
+        private final int threadsCreated;
+
+        Stats(String name, int parallelism, int poolSize, int activeThreads, int runningThreads, long queuedTasks,
+              int queuedSubmissions, long steals, int threadsCreated) {
+            this.name = name;
+            this.parallelism = parallelism;
+            this.poolSize = poolSize;
+            this.activeThreads = activeThreads;
+            this.runningThreads = runningThreads;
+            this.queuedTasks = queuedTasks;
+            this.queuedSubmissions = queuedSubmissions;
+            this.steals = steals;
+            this.threadsCreated = threadsCreated;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public int getActiveThreads() {
+            return activeThreads;
+        }
+
+        public int getRunningThreads() {
+            return runningThreads;
+        }
+
+        public long getQueuedTasks() {
+            return queuedTasks;
+        }
+
+        public int getQueuedSubmissions() {
+            return queuedSubmissions;
+        }
+
+        public long getSteals() {
+            return steals;
+        }
+
+        /** The number of worker threads created over the lifetime of the pool (including threads that have died). */
+        public int getThreadsCreated() {
+            return threadsCreated;
+        }
+
+        @Override
+        public String toString() {
+            return name + "{parallelism=" + parallelism + ", poolSize=" + poolSize + ", active=" + activeThreads
+                    + ", running=" + runningThreads + ", queuedTasks=" + queuedTasks + ", queuedSubmissions="
+                    + queuedSubmissions + ", steals=" + steals + ", threadsCreated=" + threadsCreated + "}";
+        }
+    }
+}
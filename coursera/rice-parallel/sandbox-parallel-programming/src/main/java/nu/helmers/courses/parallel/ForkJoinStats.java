@@ -0,0 +1,186 @@
+package nu.helmers.courses.parallel;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in instrumentation for the Fork/Join calculators: tasks created, a histogram of leaf sizes, steals, queue depths
+ * and the time each worker spent computing leaves.
+ * <p/>
+ * Pass an instance to a calculator to switch instrumentation on; calculators without one only pay for a null check.
+ * All counters are {@link LongAdder}s, so workers don't contend on them. Run the calculation using
+ * {@link #invoke(ForkJoinPool, ForkJoinTask)} to also capture the pool-level steal count, and log a
+ * {@link #snapshot()} afterwards. This tells you whether a threshold is too small (many tiny leaves, lots of tasks per
+ * element) or the pool is starved (few steals, idle workers).
+ */
+public class ForkJoinStats {
+
+    /** Leaf size bucket b holds the sizes in [2^(b-1), 2^b). */
+    private static final int BUCKETS = 33;
+
+    private final LongAdder tasksCreated = new LongAdder();
+    private final LongAdder forks = new LongAdder();
+    private final LongAdder steals = new LongAdder();
+    private final LongAdder leaves = new LongAdder();
+    private final LongAdder[] leafSizes = new LongAdder[BUCKETS];
+    private final LongAdder queueDepthSum = new LongAdder();
+    private final LongAccumulator maxQueueDepth = new LongAccumulator(Math::max, 0);
+    private final ConcurrentMap<String, LongAdder> busyNanos = new ConcurrentHashMap<>();
+    private final LongAdder poolSteals = new LongAdder();
+    private final LongAdder elapsedNanos = new LongAdder();
+
+    public ForkJoinStats() {
+        for (int b = 0; b < BUCKETS; b++) {
+            leafSizes[b] = new LongAdder();
+        }
+    }
+
+    /** Runs the task in the given pool, and records the elapsed time and the number of steals in that pool. */
+    public <T> T invoke(ForkJoinPool pool, ForkJoinTask<T> task) {
+        long stealsBefore = pool.getStealCount();
+        long startTime = System.nanoTime();
+        try {
+            return pool.invoke(task);
+        } finally {
+            elapsedNanos.add(System.nanoTime() - startTime);
+            poolSteals.add(pool.getStealCount() - stealsBefore);
+        }
+    }
+
+    public void recordTasksCreated(int count) {
+        tasksCreated.add(count);
+    }
+
+    /** Call this right after forking a task (from within the pool): samples the local queue depth. */
+    public void recordFork() {
+        forks.increment();
+        int depth = ForkJoinTask.getQueuedTaskCount();
+        queueDepthSum.add(depth);
+        maxQueueDepth.accumulate(depth);
+    }
+
+    /** Call this when a forked task starts executing: if it runs on a thread other than its forker, it was stolen. */
+    public void recordExecution(Thread forkedBy) {
+        if (forkedBy != Thread.currentThread()) {
+            steals.increment();
+        }
+    }
+
+    /** Call this when a leaf has been computed, passing the value of {@link System#nanoTime()} when it started. */
+    public void recordLeaf(int size, long startNanos) {
+        long busy = System.nanoTime() - startNanos;
+        leaves.increment();
+        leafSizes[64 - Long.numberOfLeadingZeros(size)].increment();
+        busyNanos.computeIfAbsent(Thread.currentThread().getName(), name -> new LongAdder()).add(busy);
+    }
+
+    public Snapshot snapshot() {
+        long[] sizes = new long[BUCKETS];
+        for (int b = 0; b < BUCKETS; b++) {
+            sizes[b] = leafSizes[b].sum();
+        }
+        Map<String, Long> busy = new TreeMap<>();
+        busyNanos.forEach((worker, nanos) -> busy.put(worker, nanos.sum()));
+        return new Snapshot(tasksCreated.sum(), forks.sum(), steals.sum(), poolSteals.sum(), leaves.sum(), sizes,
+                queueDepthSum.sum(), maxQueueDepth.get(), busy, elapsedNanos.sum());
+    }
+
+    /** An immutable copy of the statistics recorded so far. */
+    public static final class Snapshot {
+        private final long tasksCreated;
+        private final long forks;
+        private final long steals;
+        private final long poolSteals;
+        private final long leaves;
+        private final long[] leafSizes;
+        private final long queueDepthSum;
+        private final long maxQueueDepth;
+        private final Map<String, Long> busyNanos;
+        private final long elapsedNanos;
+
+        Snapshot(long tasksCreated, long forks, long steals, long poolSteals, long leaves, long[] leafSizes,
+                 long queueDepthSum, long maxQueueDepth, Map<String, Long> busyNanos, long elapsedNanos) {
+            this.tasksCreated = tasksCreated;
+            this.forks = forks;
+            this.steals = steals;
+            this.poolSteals = poolSteals;
+            this.leaves = leaves;
+            this.leafSizes = leafSizes;
+            this.queueDepthSum = queueDepthSum;
+            this.maxQueueDepth = maxQueueDepth;
+            this.busyNanos = Collections.unmodifiableMap(busyNanos);
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getTasksCreated() {
+            return tasksCreated;
+        }
+
+        public long getForks() {
+            return forks;
+        }
+
+        /** The number of forked tasks that were executed by another thread than the one that forked them. */
+        public long getSteals() {
+            return steals;
+        }
+
+        /** The increase of {@link ForkJoinPool#getStealCount()} during {@link ForkJoinStats#invoke}. */
+        public long getPoolSteals() {
+            return poolSteals;
+        }
+
+        public long getLeaves() {
+            return leaves;
+        }
+
+        /** Returns the number of leaves with a size in [2^(b-1), 2^b), for each bucket b. */
+        public long[] getLeafSizeHistogram() {
+            return leafSizes.clone();
+        }
+
+        public double getAverageQueueDepth() {
+            return forks == 0 ? 0 : (double) queueDepthSum / forks;
+        }
+
+        public long getMaxQueueDepth() {
+            return maxQueueDepth;
+        }
+
+        /** The time spent computing leaves, per worker thread name. */
+        public Map<String, Long> getBusyNanos() {
+            return busyNanos;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder histogram = new StringBuilder();
+            for (int b = 0; b < leafSizes.length; b++) {
+                if (leafSizes[b] > 0) {
+                    long from = b == 0 ? 0 : 1L << (b - 1);
+                    histogram.append(histogram.length() == 0 ? "" : ", ")
+                            .append('[').append(from).append("..").append(1L << b).append("): ").append(leafSizes[b]);
+                }
+            }
+            StringBuilder busy = new StringBuilder();
+            busyNanos.forEach((worker, nanos) -> busy.append(busy.length() == 0 ? "" : ", ")
+                    .append(worker).append('=').append(String.format("%.3f ms", nanos / 1e6)));
+
+            return String.format("tasks created=%d, forks=%d, steals=%d (pool: %d), leaves=%d {%s}, "
+                            + "queue depth avg=%.1f max=%d, elapsed=%.3f ms, busy {%s}",
+                    tasksCreated, forks, steals, poolSteals, leaves, histogram, getAverageQueueDepth(),
+                    maxQueueDepth, elapsedNanos / 1e6, busy);
+        }
+    }
+}
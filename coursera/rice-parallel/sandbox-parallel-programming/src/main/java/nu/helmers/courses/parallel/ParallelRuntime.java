@@ -0,0 +1,230 @@
+package nu.helmers.courses.parallel;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+
+/**
+ * The finish/async paradigm of Rice university's PCDP library, implemented on top of the JDK, so we can tune, profile
+ * and fix it ourselves. The methods are drop-in replacements for their PCDP counterparts.
+ * <ul>
+ *     <li>{@link #finish(Runnable)} runs its body, and then waits for all asyncs spawned in it (directly or by other
+ *     asyncs) to complete. If any of them failed, finish throws the first exception, with the others added as
+ *     suppressed exceptions.</li>
+ *     <li>{@link #async(Runnable)} runs CPU-bound work on the work-stealing pool from {@link ForkJoinPoolRegistry}.
+ *     </li>
+ *     <li>{@link #asyncBlocking(Runnable)} is for asyncs that mostly wait (for I/O, locks, ...). They run on virtual
+ *     threads when available (Java 21 and up), and on a cached thread pool otherwise, so they don't take workers away
+ *     from the CPU-bound asyncs.</li>
+ *     <li>{@link #future(Callable)} runs a task that produces a value. Its exception is thrown by Future.get(), not by
+ *     finish.</li>
+ *     <li>{@link #forall(int, int, IntConsumer)} runs a loop in parallel and waits for it; unlike PCDP's forall, it
+ *     doesn't spawn an async per iteration, but a few per worker, each running a chunk of consecutive iterations.</li>
+ * </ul>
+ * Finish scopes nest: the innermost finish of the calling thread is the one an async belongs to, and an async runs
+ * within the scope of the finish that spawned it. A finish that waits on a pool worker tells the pool it's blocked,
+ * so the pool can compensate with another worker.
+ */
+public final class ParallelRuntime {
+
+    /** The number of chunks per worker for forall: enough to balance the load when some chunks take longer. */
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    private static final ThreadLocal<FinishScope> CURRENT_SCOPE = new ThreadLocal<>();
+    private static final Executor BLOCKING_EXECUTOR = blockingExecutor();
+
+    private ParallelRuntime() {
+    }
+
+    /** Runs the body, and waits until all asyncs spawned in it have completed. */
+    public static void finish(Runnable body) {
+        FinishScope parent = CURRENT_SCOPE.get();
+        FinishScope scope = new FinishScope();
+        CURRENT_SCOPE.set(scope);
+        try {
+            body.run();
+        } catch (RuntimeException | Error e) {
+            scope.fail(e);
+        } finally {
+            CURRENT_SCOPE.set(parent);
+        }
+        scope.arrive(); // The body itself is done.
+        scope.await();
+    }
+
+    /** Runs a (CPU-bound) task asynchronously, as part of the innermost finish of the calling thread. */
+    public static void async(Runnable task) {
+        FinishScope scope = currentScope();
+        scope.register();
+        ForkJoinTask<?> forkJoinTask = ForkJoinTask.adapt(() -> runInScope(scope, task));
+        ForkJoinPool pool = ForkJoinPoolRegistry.defaultPool();
+        Thread thread = Thread.currentThread();
+        if (thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == pool) {
+            forkJoinTask.fork(); // Pushes the task to the local queue, where other workers can steal it.
+        } else {
+            pool.execute(forkJoinTask);
+        }
+    }
+
+    /** Runs a task that spends most of its time waiting asynchronously, as part of the innermost finish. */
+    public static void asyncBlocking(Runnable task) {
+        FinishScope scope = currentScope();
+        scope.register();
+        BLOCKING_EXECUTOR.execute(() -> runInScope(scope, task));
+    }
+
+    /**
+     * Runs a task that produces a value asynchronously. Inside a finish, the finish also waits for the future; outside
+     * of one, it just runs on the pool.
+     */
+    public static <T> Future<T> future(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Runnable body = () -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        };
+        if (CURRENT_SCOPE.get() != null) {
+            async(body);
+        } else {
+            ForkJoinPoolRegistry.defaultPool().execute(body);
+        }
+        return future;
+    }
+
+    /** Runs the body for every i in [start, endInclusive] in parallel, and waits until all iterations are done. */
+    public static void forall(int start, int endInclusive, IntConsumer body) {
+        long count = (long) endInclusive - start + 1;
+        if (count <= 0) {
+            return;
+        }
+        int chunks = (int) Math.min(count, CHUNKS_PER_WORKER * (long) numThreads());
+        finish(() -> {
+            for (int c = 0; c < chunks; c++) {
+                int from = (int) (start + count * c / chunks);
+                int to = (int) (start + count * (c + 1) / chunks);
+                async(() -> {
+                    for (int i = from; i < to; i++) {
+                        body.accept(i);
+                    }
+                });
+            }
+        });
+    }
+
+    /** Returns the number of workers for CPU-bound asyncs. */
+    public static int numThreads() {
+        return ForkJoinPoolRegistry.defaultPool().getParallelism();
+    }
+
+    private static FinishScope currentScope() {
+        FinishScope scope = CURRENT_SCOPE.get();
+        if (scope == null) {
+            throw new IllegalStateException("async must be called within a finish");
+        }
+        return scope;
+    }
+
+    private static void runInScope(FinishScope scope, Runnable task) {
+        // A worker can run this while it's blocked in something else (like Future.get()) in the middle of a finish of
+        // its own, so restore the scope it had.
+        FinishScope previous = CURRENT_SCOPE.get();
+        CURRENT_SCOPE.set(scope);
+        try {
+            task.run();
+        } catch (RuntimeException | Error e) {
+            scope.fail(e);
+        } finally {
+            CURRENT_SCOPE.set(previous);
+            scope.arrive();
+        }
+    }
+
+    private static Executor blockingExecutor() {
+        // Executors.newVirtualThreadPerTaskExecutor(), without depending on Java 21 at compile time.
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            AtomicInteger count = new AtomicInteger();
+            ThreadFactory threadFactory = r -> {
+                Thread thread = new Thread(r, "parallel-runtime-blocking-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            return Executors.newCachedThreadPool(threadFactory);
+        }
+    }
+
+    /** Counts the body of a finish and its asyncs that haven't completed yet, and collects their exceptions. */
+    private static final class FinishScope implements ForkJoinPool.ManagedBlocker {
+        private final AtomicInteger pending = new AtomicInteger(1); // the body
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        void register() {
+            pending.incrementAndGet();
+        }
+
+        void arrive() {
+            if (pending.decrementAndGet() == 0) {
+                done.countDown();
+            }
+        }
+
+        void fail(Throwable t) {
+            if (!failure.compareAndSet(null, t)) {
+                Throwable first = failure.get();
+                if (first == t) {
+                    return; // The same exception, e.g. rethrown by a nested finish; it can't suppress itself.
+                }
+                synchronized (first) {
+                    first.addSuppressed(t);
+                }
+            }
+        }
+
+        void await() {
+            boolean interrupted = false;
+            while (!isReleasable()) {
+                try {
+                    ForkJoinPool.managedBlock(this);
+                } catch (InterruptedException e) {
+                    interrupted = true; // Asyncs can't be abandoned: keep waiting, and restore the flag afterwards.
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            Throwable t = failure.get();
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            } else if (t instanceof Error) {
+                throw (Error) t;
+            }
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            done.await();
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return done.getCount() == 0;
+        }
+    }
+}
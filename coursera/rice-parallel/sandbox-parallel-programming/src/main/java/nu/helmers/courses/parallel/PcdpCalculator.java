@@ -1,11 +1,10 @@
 package nu.helmers.courses.parallel;
 
-import edu.rice.pcdp.PCDP;
-
 /**
  * Calculates the sum of all elements in an array.
  * <p/>
- * This implementation uses the async/finish paradigm provided by Rice university's PCDP library.
+ * This implementation uses the async/finish paradigm of Rice university's PCDP library (as implemented by
+ * {@link ParallelRuntime}).
  */
 public class PcdpCalculator {
 
@@ -23,8 +22,8 @@ public class PcdpCalculator {
 
         final SumParts parts = new SumParts();
 
-        PCDP.finish(() -> {
-            PCDP.async(() -> {
+        ParallelRuntime.finish(() -> {
+            ParallelRuntime.async(() -> {
                 for (int i = 0; i < array.length / 2; i++) {
                     parts.sum1 += array[i];
                 }
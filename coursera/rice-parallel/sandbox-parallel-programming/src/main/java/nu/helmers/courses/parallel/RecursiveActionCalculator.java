@@ -15,14 +15,24 @@ public class RecursiveActionCalculator extends RecursiveAction {
     private final long[] input;
     private final int startIndexInclusive;
     private final int endIndexExclusive;
+    private final ForkJoinStats stats;
     private long result;
 
     public RecursiveActionCalculator(final int setStartIndexInclusive,
                                      final int setEndIndexExclusive,
                                      final long[] setInput) {
+        this(setStartIndexInclusive, setEndIndexExclusive, setInput, null);
+    }
+
+    /** Since these actions are never split up, <code>stats</code> only records leaf sizes and busy time. */
+    public RecursiveActionCalculator(final int setStartIndexInclusive,
+                                     final int setEndIndexExclusive,
+                                     final long[] setInput,
+                                     final ForkJoinStats stats) {
         this.startIndexInclusive = setStartIndexInclusive;
         this.endIndexExclusive = setEndIndexExclusive;
         this.input = setInput;
+        this.stats = stats;
     }
 
     public long getResult() {
@@ -31,10 +41,14 @@ public class RecursiveActionCalculator extends RecursiveAction {
 
     @Override
     protected void compute() {
+        long startTime = stats == null ? 0 : System.nanoTime();
         long sum = 0;
         for (int i = startIndexInclusive; i < endIndexExclusive; i++) {
             sum += input[i];
         }
         this.result = sum;
+        if (stats != null) {
+            stats.recordLeaf(endIndexExclusive - startIndexInclusive, startTime);
+        }
     }
 }
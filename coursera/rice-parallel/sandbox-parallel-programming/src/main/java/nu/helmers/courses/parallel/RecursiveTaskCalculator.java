@@ -5,41 +5,101 @@ import java.util.concurrent.RecursiveTask;
 /**
  * Calculates the sum of all elements in an array.
  * <p/>
- * This implementation uses RecursiveTask from the Fork/Join framework.
+ * This implementation uses RecursiveTask from the Fork/Join framework. Pass in a {@link ForkJoinStats} to find out
+ * whether the threshold suits the array size and the pool, and a {@link CancellationToken} to be able to abort the
+ * calculation.
  */
 public class RecursiveTaskCalculator extends RecursiveTask<Long> {
 
     private long[] array;
     int fromIx;
     int toIx;
+    private final long threshold;
+    private final ForkJoinStats stats;
+    private final CancellationToken token;
+    private Thread forkedBy;
 
     private static final long THRESHOLD = 50;
 
     public RecursiveTaskCalculator(long[] array) {
-        this(array, 0, array.length);
+        this(array, THRESHOLD);
+    }
+
+    /**
+     * @param threshold tasks covering less than this number of elements are not split up any further; at least 2, or
+     *                  tasks of one element would keep splitting
+     */
+    public RecursiveTaskCalculator(long[] array, long threshold) {
+        this(array, threshold, null);
+    }
+
+    /** @param stats records what the calculation looks like to the Fork/Join framework; null to record nothing */
+    public RecursiveTaskCalculator(long[] array, long threshold, ForkJoinStats stats) {
+        this(array, threshold, stats, null);
+    }
+
+    /**
+     * @param token checked by every task before it does anything; once it has tripped, all tasks throw a
+     *              {@link java.util.concurrent.CancellationException}. Null if the calculation can't be cancelled.
+     */
+    public RecursiveTaskCalculator(long[] array, long threshold, ForkJoinStats stats, CancellationToken token) {
+        this(array, 0, array.length, checkThreshold(threshold), stats, token);
+    }
+
+    private static long checkThreshold(long threshold) {
+        if (threshold < 2) {
+            throw new IllegalArgumentException("Threshold must be at least 2, but is " + threshold);
+        }
+        return threshold;
     }
 
     /** Notice that in this implementation we use a different (private) constructor for subtasks. */
-    private RecursiveTaskCalculator(long[] array, int fromIx, int toIx) {
+    private RecursiveTaskCalculator(long[] array, int fromIx, int toIx, long threshold, ForkJoinStats stats,
+                                    CancellationToken token) {
         this.array = array;
         this.fromIx = fromIx;
         this.toIx = toIx;
+        this.threshold = threshold;
+        this.stats = stats;
+        this.token = token;
     }
 
     @Override
     protected Long compute() {
         int length = toIx - fromIx;
 
+        if (token != null) {
+            token.throwIfCancelled();
+        }
+        if (stats != null && forkedBy != null) {
+            stats.recordExecution(forkedBy);
+        }
+
         // If the task is small enough, do the calculation right away.
-        if (length < THRESHOLD) {
-            return calculateSum();
+        if (length < threshold) {
+            if (stats == null) {
+                return calculateSum();
+            }
+            long startTime = System.nanoTime();
+            Long sum = calculateSum();
+            stats.recordLeaf(length, startTime);
+            return sum;
         }
 
         // If the task is too large, split it up in subtasks and execute them in parallel.
-        RecursiveTaskCalculator task1 = new RecursiveTaskCalculator(array, fromIx, fromIx + length/2);
-        RecursiveTaskCalculator task2 = new RecursiveTaskCalculator(array, fromIx + length/2, toIx);
+        RecursiveTaskCalculator task1 =
+                new RecursiveTaskCalculator(array, fromIx, fromIx + length/2, threshold, stats, token);
+        RecursiveTaskCalculator task2 =
+                new RecursiveTaskCalculator(array, fromIx + length/2, toIx, threshold, stats, token);
 
+        if (stats != null) {
+            stats.recordTasksCreated(2);
+            task1.forkedBy = Thread.currentThread();
+        }
         task1.fork();                   // Execute in parallel (start future)
+        if (stats != null) {
+            stats.recordFork();
+        }
         Long result2 = task2.compute(); // Execute synchronously
         Long result1 = task1.join();    // Wait until completed (future.get())
 
@@ -0,0 +1,52 @@
+package nu.helmers.courses.parallel;
+
+/**
+ * The outcome of a reduction that may have been cancelled or timed out: either the result, or the reason why there is
+ * no result.
+ */
+public final class ReductionResult {
+
+    public enum Status {
+        COMPLETED,
+        CANCELLED,
+        TIMED_OUT
+    }
+
+    private final Status status;
+    private final long value;
+
+    private ReductionResult(Status status, long value) {
+        this.status = status;
+        this.value = value;
+    }
+
+    static ReductionResult completed(long value) {
+        return new ReductionResult(Status.COMPLETED, value);
+    }
+
+    static ReductionResult aborted(CancellationToken.Reason reason) {
+        return new ReductionResult(reason == CancellationToken.Reason.TIMED_OUT ? Status.TIMED_OUT : Status.CANCELLED,
+                0);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isCompleted() {
+        return status == Status.COMPLETED;
+    }
+
+    /** @throws IllegalStateException if the reduction didn't complete */
+    public long getValue() {
+        if (status != Status.COMPLETED) {
+            throw new IllegalStateException("No result: reduction " + status);
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return status == Status.COMPLETED ? status + "(" + value + ")" : status.toString();
+    }
+}
@@ -0,0 +1,124 @@
+package nu.helmers.courses.parallel;
+
+import java.util.Arrays;
+
+/**
+ * The (partial) result of a {@link StatisticsCalculator}: count, sum, min/max, mean, variance and a fixed-bucket
+ * histogram of a range of array elements.
+ * <p/>
+ * Partial results are mergeable: two instances describing disjoint ranges can be combined using {@link #merge}, which
+ * is what the calculator does when joining its subtasks. Mean and variance are merged using the parallel variant of
+ * Welford's algorithm (Chan et al.), so no second pass over the data is needed.
+ */
+public class Statistics {
+
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+    private double mean;
+    private double m2; // sum of squared differences from the mean
+
+    private final long histogramMin;
+    private final long histogramMax;
+    private final long[] buckets;
+
+    Statistics(long histogramMin, long histogramMax, int bucketCount) {
+        this.histogramMin = histogramMin;
+        this.histogramMax = histogramMax;
+        this.buckets = bucketCount > 0 ? new long[bucketCount] : null;
+    }
+
+    /** Creates an empty partial result with the same histogram layout as this one. */
+    Statistics newPartial() {
+        return new Statistics(histogramMin, histogramMax, buckets == null ? 0 : buckets.length);
+    }
+
+    /**
+     * Merges the statistics of a range of <code>n</code> elements into this result. The count is updated last, because
+     * merging the mean and variance depends on the count of the elements seen so far.
+     */
+    void addRange(long n, long rangeSum, long rangeMin, long rangeMax, double rangeMean, double rangeM2) {
+        if (n == 0) {
+            return;
+        }
+        sum += rangeSum;
+        min = Math.min(min, rangeMin);
+        max = Math.max(max, rangeMax);
+
+        long total = count + n;
+        double delta = rangeMean - mean;
+        mean += delta * n / total;
+        m2 += rangeM2 + delta * delta * ((double) count * n / total);
+        count = total;
+    }
+
+    long[] buckets() {
+        return buckets;
+    }
+
+    /**
+     * Returns the histogram bucket for the given value. Values below the histogram range end up in the first bucket,
+     * values above it in the last one.
+     * <p/>
+     * The differences are taken in double: as longs, <code>histogramMax - histogramMin</code> overflows for ranges
+     * wider than Long.MAX_VALUE (like [Long.MIN_VALUE, Long.MAX_VALUE]). Rounding can put a value just below the
+     * maximum at index bucketCount, which belongs in the last bucket.
+     */
+    int bucketOf(long value) {
+        if (value <= histogramMin) {
+            return 0;
+        }
+        if (value >= histogramMax) {
+            return buckets.length - 1;
+        }
+        double fraction = ((double) value - histogramMin) / ((double) histogramMax - histogramMin);
+        return Math.min((int) (fraction * buckets.length), buckets.length - 1);
+    }
+
+    /** Merges another partial result (for a disjoint range of elements) into this one. */
+    void merge(Statistics other) {
+        if (buckets != null) {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] += other.buckets[i];
+            }
+        }
+        addRange(other.count, other.sum, other.min, other.max, other.mean, other.m2);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /** Returns the population variance. */
+    public double getVariance() {
+        return count == 0 ? 0 : m2 / count;
+    }
+
+    /** Returns the number of elements per histogram bucket, or an empty array if no histogram was requested. */
+    public long[] getHistogram() {
+        return buckets == null ? new long[0] : buckets.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "Statistics{count=" + count + ", sum=" + sum + ", min=" + min + ", max=" + max + ", mean=" + mean
+                + ", variance=" + getVariance() + ", histogram=" + Arrays.toString(getHistogram()) + "}";
+    }
+}
@@ -0,0 +1,139 @@
+package nu.helmers.courses.parallel;
+
+import java.util.Set;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Calculates a configurable set of statistics (sum, min/max, mean, variance, histogram) of all elements in an array,
+ * in a single pass.
+ * <p/>
+ * Computing each statistic with a separate calculator means one full pass over the array per statistic, and each pass
+ * is bound by memory bandwidth. This implementation uses RecursiveTask from the Fork/Join framework to compute all of
+ * them in one traversal.
+ * <p/>
+ * Leaves keep their running values in local variables and don't allocate: a leaf adds its results to the partial
+ * {@link Statistics} it was handed by its parent. Only forked subtasks get a fresh partial result, which is merged
+ * into the parent's one after joining.
+ */
+public class StatisticsCalculator extends RecursiveTask<Statistics> {
+
+    /** The statistics that can be requested. The element count is always calculated. */
+    public enum Statistic {
+        SUM,
+        MIN_MAX,
+        MEAN,
+        /** Population variance; implies {@link #MEAN}. */
+        VARIANCE,
+        /** Fixed-bucket histogram; requires a histogram range to be passed to the constructor. */
+        HISTOGRAM
+    }
+
+    private static final int THRESHOLD = 16_384;
+
+    private final long[] array;
+    private final int fromIx;
+    private final int toIx;
+    private final Statistics target;
+
+    private final boolean sum;
+    private final boolean minMax;
+    private final boolean variance;
+    private final boolean histogram;
+
+    public StatisticsCalculator(long[] array, Set<Statistic> statistics) {
+        this(array, statistics, 0, 0, 0);
+    }
+
+    /**
+     * @param histogramMin lower bound of the first histogram bucket
+     * @param histogramMax upper bound of the last histogram bucket
+     * @param bucketCount the number of (equally sized) histogram buckets
+     */
+    public StatisticsCalculator(long[] array, Set<Statistic> statistics,
+                                long histogramMin, long histogramMax, int bucketCount) {
+        this(array, 0, array.length, new Statistics(histogramMin, histogramMax,
+                statistics.contains(Statistic.HISTOGRAM) ? bucketCount : 0), statistics);
+        if (histogram && (bucketCount <= 0 || histogramMax <= histogramMin)) {
+            throw new IllegalArgumentException("A histogram needs a non-empty range and at least one bucket");
+        }
+    }
+
+    /** Notice that (like in RecursiveTaskCalculator) we use a different (private) constructor for subtasks. */
+    private StatisticsCalculator(long[] array, int fromIx, int toIx, Statistics target, Set<Statistic> statistics) {
+        this.array = array;
+        this.fromIx = fromIx;
+        this.toIx = toIx;
+        this.target = target;
+        this.variance = statistics.contains(Statistic.VARIANCE);
+        this.sum = statistics.contains(Statistic.SUM) || statistics.contains(Statistic.MEAN) || variance;
+        this.minMax = statistics.contains(Statistic.MIN_MAX);
+        this.histogram = statistics.contains(Statistic.HISTOGRAM);
+    }
+
+    private StatisticsCalculator(StatisticsCalculator parent, int fromIx, int toIx, Statistics target) {
+        this.array = parent.array;
+        this.fromIx = fromIx;
+        this.toIx = toIx;
+        this.target = target;
+        this.sum = parent.sum;
+        this.minMax = parent.minMax;
+        this.variance = parent.variance;
+        this.histogram = parent.histogram;
+    }
+
+    @Override
+    protected Statistics compute() {
+        int length = toIx - fromIx;
+
+        if (length < THRESHOLD) {
+            calculateStatistics();
+            return target;
+        }
+
+        // The forked half gets its own partial result; the half we compute ourselves reuses ours.
+        int middle = fromIx + length / 2;
+        StatisticsCalculator task1 = new StatisticsCalculator(this, fromIx, middle, target.newPartial());
+        StatisticsCalculator task2 = new StatisticsCalculator(this, middle, toIx, target);
+
+        task1.fork();
+        task2.compute();
+        target.merge(task1.join());
+
+        return target;
+    }
+
+    private void calculateStatistics() {
+        long s = 0;
+        long lo = Long.MAX_VALUE;
+        long hi = Long.MIN_VALUE;
+        double mean = 0;
+        double m2 = 0;
+        long[] buckets = target.buckets();
+
+        for (int i = fromIx; i < toIx; i++) {
+            long value = array[i];
+            if (sum) {
+                s += value;
+            }
+            if (minMax) {
+                lo = Math.min(lo, value);
+                hi = Math.max(hi, value);
+            }
+            if (variance) {
+                // Welford's online algorithm.
+                double delta = value - mean;
+                mean += delta / (i - fromIx + 1);
+                m2 += delta * (value - mean);
+            }
+            if (histogram) {
+                buckets[target.bucketOf(value)]++;
+            }
+        }
+
+        int n = toIx - fromIx;
+        if (!variance && n > 0) {
+            mean = (double) s / n;
+        }
+        target.addRange(n, s, lo, hi, mean, m2);
+    }
+}
@@ -0,0 +1,38 @@
+package nu.helmers.courses.parallel;
+
+import org.junit.Test;
+
+import java.util.stream.LongStream;
+
+import static nu.helmers.courses.parallel.AdaptiveSumCalculator.Backend;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * This test calibrates an {@link AdaptiveSumCalculator}, prints the backend it picked per array size, and checks that
+ * all backends agree on the result.
+ */
+public class AdaptiveSumCalculatorTest {
+
+    @Test
+    public void test() {
+        AdaptiveSumCalculator calculator = new AdaptiveSumCalculator().calibrate(1 << 20);
+
+        for (int length = 1 << 10; length <= 1 << 24; length <<= 2) {
+            System.out.println("Array length " + length + ": " + calculator.choiceFor(length));
+        }
+
+        long[] array = LongStream.rangeClosed(0, 20_000_000).toArray();
+        assertThat(calculator.sum(array), is(200000010000000L));
+    }
+
+    @Test
+    public void allBackendsAgree() {
+        long[] array = LongStream.rangeClosed(0, 1_000_000).toArray();
+
+        for (Backend backend : Backend.values()) {
+            assertThat(AdaptiveSumCalculator.sum(array, backend, 7), is(500000500000L));
+        }
+        assertThat(AdaptiveSumCalculator.sum(new long[0], Backend.PCDP, 4), is(0L));
+    }
+}
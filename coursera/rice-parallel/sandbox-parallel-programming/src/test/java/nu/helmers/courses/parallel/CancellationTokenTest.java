@@ -0,0 +1,103 @@
+package nu.helmers.courses.parallel;
+
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import static nu.helmers.courses.parallel.AdaptiveSumCalculator.Backend;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * This test shows how to put a deadline on a reduction, or cancel it, and checks that an aborted calculation doesn't
+ * keep the pool busy.
+ */
+public class CancellationTokenTest {
+
+    private static final long[] ARRAY = LongStream.rangeClosed(0, 50_000_000).toArray();
+    private static final int THRESHOLD = 1 << 12;
+
+    @Test
+    public void completesBeforeDeadline() {
+        ReductionResult result = new AdaptiveSumCalculator()
+                .sum(ARRAY, CancellationToken.withTimeout(1, TimeUnit.MINUTES));
+
+        assertThat(result.getStatus(), is(ReductionResult.Status.COMPLETED));
+        assertThat(result.getValue(), is(1250000025000000L));
+    }
+
+    @Test
+    public void timesOut() {
+        for (Backend backend : Backend.values()) {
+            // Summing 50 million elements takes far longer than a millisecond, even with a sensible granularity.
+            long startTime = System.nanoTime();
+            ReductionResult result = AdaptiveSumCalculator.sum(ARRAY, backend, granularity(backend),
+                    CancellationToken.withTimeout(1, TimeUnit.MILLISECONDS));
+            long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+
+            System.out.println(backend + ": " + result + " after " + elapsedMillis + " ms");
+            assertThat(result.getStatus(), is(ReductionResult.Status.TIMED_OUT));
+        }
+        assertPoolIsQuiet(ForkJoinPoolRegistry.defaultPool());
+    }
+
+    @Test
+    public void isCancelled() {
+        // Cancelled before the task is submitted, so the outcome doesn't depend on how far the sum gets before the
+        // cancellation: the root task checks the token before it does anything.
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        ForkJoinTask<Long> task = ForkJoinPoolRegistry.defaultPool()
+                .submit(new RecursiveTaskCalculator(ARRAY, THRESHOLD, null, token));
+
+        try {
+            task.join();
+            fail("Expected a CancellationException");
+        } catch (CancellationException e) {
+            assertThat(token.getReason(), is(CancellationToken.Reason.CANCELLED));
+        }
+        assertTrue(task.isCompletedAbnormally());
+        assertPoolIsQuiet(ForkJoinPoolRegistry.defaultPool());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsThresholdThatNeverStopsSplitting() {
+        new RecursiveTaskCalculator(new long[1000], 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void failureIsNotReportedAsCancellation() {
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        // The failure (an invalid threshold) happens before the token is ever checked.
+        AdaptiveSumCalculator.sum(ARRAY, Backend.FORK_JOIN, 1, token);
+    }
+
+    @Test
+    public void withoutToken() {
+        ReductionResult result = AdaptiveSumCalculator.sum(ARRAY, Backend.FORK_JOIN, THRESHOLD, null);
+
+        assertThat(result.getValue(), is(1250000025000000L));
+    }
+
+    private static int granularity(Backend backend) {
+        switch (backend) {
+            case FORK_JOIN:
+                return THRESHOLD;
+            case PCDP:
+                return 4 * ForkJoinPoolRegistry.defaultPool().getParallelism();
+            default:
+                return 0;
+        }
+    }
+
+    private static void assertPoolIsQuiet(ForkJoinPool pool) {
+        assertTrue("Pool still busy after abort", pool.awaitQuiescence(1, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,42 @@
+package nu.helmers.courses.parallel;
+
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.LongStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/** */
+public class ForkJoinPoolRegistryTest {
+
+    @Test
+    public void poolsAreReused() {
+        long[] array = LongStream.rangeClosed(0, 1_000_000).toArray();
+
+        ForkJoinPool pool = ForkJoinPoolRegistry.get("registry-test", 2);
+        for (int i = 0; i < 10; i++) {
+            assertThat(ForkJoinPoolRegistry.get("registry-test", 2).invoke(new RecursiveTaskCalculator(array)),
+                    is(500000500000L));
+        }
+
+        assertTrue(ForkJoinPoolRegistry.get("registry-test", 2) == pool);
+        ForkJoinPoolRegistry.Stats stats = ForkJoinPoolRegistry.stats("registry-test");
+        System.out.println(stats);
+        // A new pool per invocation would have started at least 2 threads per invocation. (The pool may start an extra
+        // thread now and then, to compensate for a worker that is blocked in a join.)
+        assertTrue(stats.getThreadsCreated() < 10);
+
+        ForkJoinPoolRegistry.shutdown("registry-test");
+        assertTrue(pool.isShutdown());
+        assertTrue(ForkJoinPoolRegistry.get("registry-test", 2) != pool);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parallelismMustMatch() {
+        ForkJoinPoolRegistry.get("registry-test-parallelism", 2);
+        ForkJoinPoolRegistry.get("registry-test-parallelism", 3);
+    }
+}
@@ -0,0 +1,37 @@
+package nu.helmers.courses.parallel;
+
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.LongStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * This test shows how to instrument a Fork/Join calculation, and how the threshold of a
+ * {@link RecursiveTaskCalculator} shows up in the statistics.
+ */
+public class ForkJoinStatsTest {
+
+    @Test
+    public void test() {
+        long[] array = LongStream.rangeClosed(0, 20_000_000).toArray();
+        ForkJoinPool pool = ForkJoinPoolRegistry.get("fork-join-stats", 4);
+
+        for (long threshold : new long[] {50, 50_000}) {
+            ForkJoinStats stats = new ForkJoinStats();
+
+            Long result = stats.invoke(pool, new RecursiveTaskCalculator(array, threshold, stats));
+
+            ForkJoinStats.Snapshot snapshot = stats.snapshot();
+            System.out.println("Threshold " + threshold + ": " + snapshot);
+
+            assertThat(result, is(200000010000000L));
+            // Every split creates two tasks, and turns one leaf into two.
+            assertThat(snapshot.getTasksCreated(), is(2 * (snapshot.getLeaves() - 1)));
+            assertThat(LongStream.of(snapshot.getLeafSizeHistogram()).sum(), is(snapshot.getLeaves()));
+            assertThat(snapshot.getForks(), is(snapshot.getLeaves() - 1));
+        }
+    }
+}
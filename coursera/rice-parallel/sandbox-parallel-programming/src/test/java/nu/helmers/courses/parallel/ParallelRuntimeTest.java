@@ -0,0 +1,132 @@
+package nu.helmers.courses.parallel;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Tests the finish/async semantics of {@link ParallelRuntime}. */
+public class ParallelRuntimeTest {
+
+    @Test
+    public void finishWaitsForNestedAsyncs() {
+        LongAdder count = new LongAdder();
+
+        ParallelRuntime.finish(() -> {
+            for (int i = 0; i < 100; i++) {
+                ParallelRuntime.async(() -> {
+                    // Spawned by an async: still part of the outer finish.
+                    ParallelRuntime.async(count::increment);
+                    // A nested finish only waits for its own asyncs.
+                    ParallelRuntime.finish(() -> ParallelRuntime.async(count::increment));
+                    count.increment();
+                });
+            }
+            ParallelRuntime.asyncBlocking(() -> {
+                sleep(50);
+                count.increment();
+            });
+        });
+
+        assertThat(count.sum(), is(301L));
+    }
+
+    @Test
+    public void exceptionsPropagate() {
+        try {
+            ParallelRuntime.finish(() -> {
+                ParallelRuntime.async(() -> {
+                    throw new IllegalStateException("first");
+                });
+                ParallelRuntime.async(() -> {
+                    throw new IllegalArgumentException("second");
+                });
+                ParallelRuntime.async(() -> { });
+            });
+            fail("Expected an exception");
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            // Either one can come first; the other one is suppressed.
+            assertThat(e.getSuppressed().length, is(1));
+        }
+    }
+
+    @Test
+    public void sameExceptionTwice() {
+        IllegalStateException exception = new IllegalStateException("shared");
+        try {
+            ParallelRuntime.finish(() -> {
+                ParallelRuntime.async(() -> {
+                    throw exception;
+                });
+                sleep(50); // Let the async fail first.
+                throw exception;
+            });
+            fail("Expected an exception");
+        } catch (IllegalStateException e) {
+            assertTrue(e == exception);
+            assertThat(e.getSuppressed().length, is(0));
+        }
+    }
+
+    @Test
+    public void future() throws InterruptedException, ExecutionException {
+        @SuppressWarnings("unchecked")
+        Future<Integer>[] futures = new Future[10];
+        ParallelRuntime.finish(() -> {
+            for (int i = 0; i < futures.length; i++) {
+                int n = i;
+                futures[i] = ParallelRuntime.future(() -> n * n);
+            }
+        });
+        for (int i = 0; i < futures.length; i++) {
+            assertTrue(futures[i].isDone()); // finish waits for futures too
+            assertThat(futures[i].get(), is(i * i));
+        }
+
+        Future<Integer> failing = ParallelRuntime.future(() -> {
+            throw new IllegalStateException("failure");
+        });
+        try {
+            failing.get();
+            fail("Expected an exception");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void forall() {
+        int[] counts = new int[1_000_001];
+        AtomicInteger iterations = new AtomicInteger();
+
+        ParallelRuntime.forall(0, 1_000_000, i -> {
+            counts[i]++;
+            iterations.incrementAndGet();
+        });
+
+        assertThat(iterations.get(), is(1_000_001));
+        assertTrue(IntStream.of(counts).allMatch(c -> c == 1));
+        ParallelRuntime.forall(5, 4, i -> fail("Empty range"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void asyncOutsideFinish() {
+        ParallelRuntime.async(() -> { });
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
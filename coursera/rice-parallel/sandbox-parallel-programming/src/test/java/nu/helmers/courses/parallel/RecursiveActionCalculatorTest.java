@@ -33,6 +33,7 @@ public class RecursiveActionCalculatorTest {
         double result2 = timedCalculateSum(array, 4);
 
         Assert.assertEquals(result1, result2, 0);
+        System.out.println(ForkJoinPoolRegistry.stats());
     }
 
     private double calculateSum(final long[] input, final int numTasks) {
@@ -44,7 +45,9 @@ public class RecursiveActionCalculatorTest {
 
         // Submit all tasks to a fork/join pool.
         // Simply doing "task.fork()" won't give you as much speedup! Always use a pool!
-        ForkJoinPool pool = new ForkJoinPool(numTasks);
+        // And don't create a new ForkJoinPool(numTasks) on every call: its threads are started every time, and leak
+        // if the pool is never shut down. The registry hands out reusable pools.
+        ForkJoinPool pool = ForkJoinPoolRegistry.get("recursive-action-calculator-" + numTasks, numTasks);
         actions.stream().forEach(a -> pool.submit(a));
         actions.stream().forEach(a -> a.join());
 
@@ -28,18 +28,19 @@ public class RecursiveTaskCalculatorTest {
     public void test() {
         long[] array = LongStream.rangeClosed(0, 200_000_000).toArray();
 
-        // This system property sets the degree of parallelism you want to exploit when using the common pool
-        // from the Fork/Join framework.
+        // The system property "java.util.concurrent.ForkJoinPool.common.parallelism" sets the degree of parallelism
+        // of the common pool from the Fork/Join framework, but only if it is set before the common pool is started.
         // Without this system property the common pool sets parallelism = Runtime.getRuntime().availableProcessors()-1.
         // Because there's always a main thread, there's no point in setting the parallelism higher than this.
-        System.setProperty("java.util.concurrent.ForkJoinPool.common.parallelism", "4");
+        // To get a pool with the parallelism you want, ask the ForkJoinPoolRegistry for one.
+        ForkJoinPool pool = ForkJoinPoolRegistry.get("recursive-task-calculator", 4);
 
-        Long result = calculateSum(array, 50);
+        Long result = calculateSum(pool, array, 50);
 
         assertThat(result, is(20000000100000000L));
     }
 
-    private Long calculateSum(long[] array, int times) {
+    private Long calculateSum(ForkJoinPool pool, long[] array, int times) {
         Long result = 0l;
 
         for (int i = 0; i < times; i++) {
@@ -47,9 +48,9 @@ public class RecursiveTaskCalculatorTest {
             long startTime = System.nanoTime();
 
             // You can use the common pool...
-            result = ForkJoinPool.commonPool().invoke(task);
-            // Or a custom pool, passing in the desired degree of parallelism.
-//            result = new ForkJoinPool(4).invoke(task);
+//            result = ForkJoinPool.commonPool().invoke(task);
+            // Or a custom pool with the desired degree of parallelism. Reuse it: don't create a new pool every time!
+            result = pool.invoke(task);
 
             System.out.printf("Completed in %8.3f ms \n", (System.nanoTime() - startTime) / 1e6);
         }
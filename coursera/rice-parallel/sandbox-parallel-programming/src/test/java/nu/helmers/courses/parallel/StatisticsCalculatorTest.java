@@ -0,0 +1,74 @@
+package nu.helmers.courses.parallel;
+
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.stream.LongStream;
+
+import static nu.helmers.courses.parallel.StatisticsCalculator.Statistic.*;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+/**
+ * This test illustrates how to calculate several statistics of an array in a single (parallel) pass, and checks the
+ * merged partial results against the formulas for the sum and variance of 0..n.
+ */
+public class StatisticsCalculatorTest {
+
+    @Test
+    public void test() {
+        long[] array = LongStream.rangeClosed(0, 20_000_000).toArray();
+
+        long startTime = System.nanoTime();
+        Statistics statistics = ForkJoinPoolRegistry.defaultPool().invoke(new StatisticsCalculator(array,
+                EnumSet.of(SUM, MIN_MAX, MEAN, VARIANCE, HISTOGRAM), 0, 20_000_001, 4));
+        System.out.printf("Completed in %8.3f ms: %s\n", (System.nanoTime() - startTime) / 1e6, statistics);
+
+        double n = array.length;
+        assertThat(statistics.getCount(), is(20_000_001L));
+        assertThat(statistics.getSum(), is(200000010000000L));
+        assertThat(statistics.getMin(), is(0L));
+        assertThat(statistics.getMax(), is(20_000_000L));
+        assertEquals(10_000_000, statistics.getMean(), 1e-6);
+        assertEquals((n * n - 1) / 12, statistics.getVariance(), 1e-6 * statistics.getVariance());
+
+        // The buckets are 5_000_000.25 wide.
+        assertArrayEquals(new long[] {5_000_001, 5_000_000, 5_000_000, 5_000_000}, statistics.getHistogram());
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        long[] array = {-5, 0, 9, 10, 19, 20, 29, 30, 39, 40, 1_000};
+
+        Statistics statistics = ForkJoinPoolRegistry.defaultPool()
+                .invoke(new StatisticsCalculator(array, EnumSet.of(HISTOGRAM), 0, 40, 4));
+
+        // [.., 10), [10, 20), [20, 30) and [30, ..]: -5 goes to the first bucket, 1_000 to the last one.
+        assertArrayEquals(new long[] {3, 2, 2, 4}, statistics.getHistogram());
+    }
+
+    @Test
+    public void widestRange() {
+        long[] array = {Long.MIN_VALUE, -3_000_000_000_000_000_000L, 0, 3_000_000_000_000_000_000L, Long.MAX_VALUE};
+
+        Statistics statistics = ForkJoinPoolRegistry.defaultPool()
+                .invoke(new StatisticsCalculator(array, EnumSet.of(HISTOGRAM), Long.MIN_VALUE, Long.MAX_VALUE, 4));
+
+        // histogramMax - histogramMin doesn't fit in a long; the buckets are 2^62 (about 4.6 * 10^18) wide.
+        assertArrayEquals(new long[] {1, 1, 2, 1}, statistics.getHistogram());
+    }
+
+    @Test
+    public void onlyRequestedStatisticsAreCalculated() {
+        long[] array = LongStream.rangeClosed(1, 100_000).toArray();
+
+        Statistics statistics = ForkJoinPoolRegistry.defaultPool()
+                .invoke(new StatisticsCalculator(array, EnumSet.of(SUM)));
+
+        assertThat(statistics.getSum(), is(5000050000L));
+        assertThat(statistics.getMax(), is(Long.MIN_VALUE));
+        assertThat(statistics.getHistogram().length, is(0));
+    }
+}